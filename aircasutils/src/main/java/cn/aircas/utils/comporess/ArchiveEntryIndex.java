@@ -0,0 +1,519 @@
+package cn.aircas.utils.comporess;
+
+import cn.aircas.utils.metrics.Metrics;
+import com.github.junrar.Archive;
+import com.github.junrar.exception.RarException;
+import com.github.junrar.rarfile.FileHeader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * tar、rar文件的随机访问索引
+ * 首次访问时顺序扫描一遍文件头，记录每个文件的名称、文件头和数据的偏移量、大小和修改时间，保存在压缩包旁的.idx文件中，
+ * 压缩包大小或修改时间变化后重新扫描；之后提取单个文件时直接定位到数据偏移量，不需要读取前面的文件。
+ * 未压缩的tar文件可以按InputStream或SeekableByteChannel读取单个文件；
+ * gzip等压缩的tar文件无法定位，仍需从头解压到数据偏移量，但不再解析前面的文件头；
+ * rar文件通过junrar按文件头打开，非固实压缩只解压目标文件，固实压缩需要依次解压前面的文件
+ * @author vanishrain
+ */
+@Slf4j
+public class ArchiveEntryIndex {
+
+    private static final int MAGIC = 0x41494149;
+
+    //版本2起不再索引符号链接、硬链接等非普通文件，旧版本的索引重新扫描
+    private static final int VERSION = 2;
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    private static final byte[] RAR_HEADER = {'R','a','r','!'};
+
+    /**
+     * 压缩包格式
+     */
+    public enum Format {
+        TAR, RAR
+    }
+
+    private final File archiveFile;
+    private final Format format;
+    //tar文件的外层压缩格式，rar文件为null
+    private final TarExtractor.TarCompression compression;
+    private final boolean solid;
+    private final List<ArchiveIndexEntry> entries;
+    private final Map<String, ArchiveIndexEntry> entryMap;
+
+    private ArchiveEntryIndex(File archiveFile, Format format, TarExtractor.TarCompression compression, boolean solid,
+                              List<ArchiveIndexEntry> entries){
+        this.archiveFile = archiveFile;
+        this.format = format;
+        this.compression = compression;
+        this.solid = solid;
+        this.entries = Collections.unmodifiableList(entries);
+        this.entryMap = new HashMap<>(entries.size() * 2);
+        for (ArchiveIndexEntry entry : entries)
+            this.entryMap.put(entry.getName(), entry);
+    }
+
+    /**
+     * 打开压缩包的索引，索引文件不存在或已过期时扫描压缩包重新生成
+     * 索引文件无法写入（如目录只读）时只在内存中使用
+     * @param archiveFile tar（可以是tar.gz、tar.bz2、tar.xz、tar.zst）或rar文件
+     * @return
+     * @throws IOException 不是tar或rar文件，或扫描失败
+     */
+    public static ArchiveEntryIndex open(File archiveFile) throws IOException {
+        if (!archiveFile.isFile())
+            throw new FileNotFoundException("文件：" + archiveFile.getAbsolutePath() + " 不存在");
+        File indexFile = indexFile(archiveFile);
+        if (indexFile.isFile()) {
+            try {
+                ArchiveEntryIndex index = load(archiveFile, indexFile);
+                if (index != null)
+                    return index;
+            } catch (IOException e) {
+                log.warn("读取压缩包索引：{} 失败，重新生成", indexFile.getAbsolutePath(), e);
+            }
+        }
+
+        long begin = System.nanoTime();
+        ArchiveEntryIndex index = scan(archiveFile);
+        log.info("生成压缩包索引：{}，文件数：{}，耗时：{}ms", archiveFile.getAbsolutePath(),
+                index.entries.size(), (System.nanoTime() - begin) / 1000000);
+        try {
+            index.save(indexFile);
+        } catch (IOException e) {
+            log.warn("保存压缩包索引：{} 失败", indexFile.getAbsolutePath(), e);
+        }
+        return index;
+    }
+
+    public File getArchiveFile(){
+        return archiveFile;
+    }
+
+    public Format getFormat(){
+        return format;
+    }
+
+    /**
+     * 是否可以直接定位到文件数据，gzip等压缩的tar和固实压缩的rar不能
+     * @return
+     */
+    public boolean isRandomAccess(){
+        return format == Format.TAR ? compression == TarExtractor.TarCompression.NONE : !solid;
+    }
+
+    /**
+     * 压缩包内的所有文件和文件夹，按在压缩包中的顺序排列
+     * @return
+     */
+    public List<ArchiveIndexEntry> getEntries(){
+        return entries;
+    }
+
+    /**
+     * 按压缩包内路径查找文件
+     * @param entryName 压缩包内的路径，分隔符可以是/或\
+     * @return 不存在时返回null
+     */
+    public ArchiveIndexEntry getEntry(String entryName){
+        return entryMap.get(normalize(entryName));
+    }
+
+    /**
+     * 提取单个文件
+     * @param entryName 压缩包内的路径
+     * @param destFile 输出文件
+     * @param listener 进度回调，可为null
+     * @throws IOException
+     */
+    public void extract(String entryName, File destFile, ArchiveProgressListener listener) throws IOException {
+        ArchiveProgressListener progressListener = listener == null ? new ArchiveProgressListener() {} : listener;
+        ArchiveIndexEntry entry = requireFile(entryName);
+        File parentFile = destFile.getAbsoluteFile().getParentFile();
+        if (parentFile != null && !parentFile.exists())
+            parentFile.mkdirs();
+
+        progressListener.onEntryStart(entry.getName(), entry.getSize());
+        long written;
+        if (format == Format.RAR) {
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(destFile), BUFFER_SIZE)) {
+                extractRar(entry, outputStream);
+            }
+            written = destFile.length();
+            progressListener.onBytes(written);
+        } else {
+            try (FileChannel destChannel = FileChannel.open(destFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                if (compression == TarExtractor.TarCompression.NONE) {
+                    try (FileChannel srcChannel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ)) {
+                        written = TarExtractor.transfer(srcChannel, entry.getDataOffset(), entry.getSize(), destChannel, progressListener);
+                    }
+                } else {
+                    try (InputStream inputStream = openStream(entry)) {
+                        written = TarExtractor.copy(inputStream, ByteBuffer.allocate(BUFFER_SIZE), destChannel, progressListener);
+                    }
+                }
+            }
+        }
+        if (written != entry.getSize())
+            throw new EOFException("压缩包中的文件：" + entry.getName() + " 不完整");
+        if (entry.getModifyTime() > 0)
+            destFile.setLastModified(entry.getModifyTime());
+        Metrics.increment(Metrics.ARCHIVE_ENTRIES, 1);
+        Metrics.increment(Metrics.ARCHIVE_BYTES, written);
+        progressListener.onEntryComplete(entry.getName(), written);
+    }
+
+    /**
+     * 以输入流读取单个文件，使用完后需要关闭
+     * @param entryName 压缩包内的路径
+     * @return
+     * @throws IOException
+     */
+    public InputStream openStream(String entryName) throws IOException {
+        return openStream(requireFile(entryName));
+    }
+
+    /**
+     * 以可定位的只读通道读取单个文件，只支持未压缩的tar文件，使用完后需要关闭
+     * @param entryName 压缩包内的路径
+     * @return
+     * @throws IOException 压缩包不支持随机访问
+     */
+    public SeekableByteChannel openChannel(String entryName) throws IOException {
+        ArchiveIndexEntry entry = requireFile(entryName);
+        if (format != Format.TAR || compression != TarExtractor.TarCompression.NONE)
+            throw new IOException("压缩包：" + archiveFile.getName() + " 不支持随机访问，请使用openStream");
+        return new EntryChannel(FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ),
+                entry.getDataOffset(), entry.getSize());
+    }
+
+    private InputStream openStream(ArchiveIndexEntry entry) throws IOException {
+        if (format == Format.RAR)
+            return openRarStream(entry);
+        if (compression == TarExtractor.TarCompression.NONE) {
+            FileChannel fileChannel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ);
+            return new BufferedInputStream(Channels.newInputStream(
+                    new EntryChannel(fileChannel, entry.getDataOffset(), entry.getSize())), BUFFER_SIZE);
+        }
+        //压缩的tar只能从头解压，跳过数据偏移量之前的内容
+        InputStream inputStream = TarExtractor.open(archiveFile, compression);
+        try {
+            long skipped = IOUtils.skip(inputStream, entry.getDataOffset());
+            if (skipped != entry.getDataOffset())
+                throw new EOFException("压缩包：" + archiveFile.getName() + " 不完整");
+        } catch (IOException | RuntimeException e) {
+            inputStream.close();
+            throw e;
+        }
+        return new BoundedInputStream(inputStream, entry.getSize());
+    }
+
+    private InputStream openRarStream(ArchiveIndexEntry entry) throws IOException {
+        Archive archive = openRar();
+        try {
+            FileHeader fileHeader = seekRar(archive, entry);
+            return new FilterInputStream(archive.getInputStream(fileHeader)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        archive.close();
+                    }
+                }
+            };
+        } catch (RarException | IOException | RuntimeException e) {
+            archive.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("读取压缩包：" + archiveFile.getName() + " 错误", e);
+        }
+    }
+
+    private void extractRar(ArchiveIndexEntry entry, OutputStream outputStream) throws IOException {
+        try (Archive archive = openRar()) {
+            archive.extractFile(seekRar(archive, entry), outputStream);
+        } catch (RarException e) {
+            throw new IOException("解压缩文件：" + archiveFile.getName() + " 错误", e);
+        }
+    }
+
+    /**
+     * 按文件头偏移量找到目标文件，固实压缩时依次解压前面的文件以恢复解压状态
+     */
+    private FileHeader seekRar(Archive archive, ArchiveIndexEntry entry) throws IOException, RarException {
+        for (FileHeader fileHeader : archive.getFileHeaders()) {
+            if (fileHeader.getPositionInFile() == entry.getHeaderOffset())
+                return fileHeader;
+            if (solid && !fileHeader.isDirectory())
+                archive.extractFile(fileHeader, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+        throw new IOException("压缩包：" + archiveFile.getName() + " 已变化，找不到文件：" + entry.getName());
+    }
+
+    private Archive openRar() throws IOException {
+        try {
+            return new Archive(archiveFile, null);
+        } catch (RarException e) {
+            throw new IOException("读取压缩包：" + archiveFile.getName() + " 错误", e);
+        }
+    }
+
+    private ArchiveIndexEntry requireFile(String entryName) throws IOException {
+        ArchiveIndexEntry entry = getEntry(entryName);
+        if (entry == null || entry.isDirectory())
+            throw new FileNotFoundException("压缩包：" + archiveFile.getName() + " 中不存在文件：" + entryName);
+        return entry;
+    }
+
+    private static ArchiveEntryIndex scan(File archiveFile) throws IOException {
+        if (isRar(archiveFile))
+            return scanRar(archiveFile);
+        TarExtractor.TarCompression compression = TarExtractor.detect(archiveFile);
+        if (compression == null)
+            throw new IOException("文件：" + archiveFile.getName() + " 不是tar或rar格式");
+        return scanTar(archiveFile, compression);
+    }
+
+    /**
+     * 顺序读取tar文件头，未压缩的tar跳过数据时直接定位，不读取数据
+     */
+    private static ArchiveEntryIndex scanTar(File archiveFile, TarExtractor.TarCompression compression) throws IOException {
+        List<ArchiveIndexEntry> entries = new ArrayList<>();
+        try (TarArchiveInputStream tarArchiveInputStream = new TarArchiveInputStream(TarExtractor.open(archiveFile, compression))) {
+            //下一个文件头的偏移量，无法确定时为-1
+            long nextHeaderOffset = 0;
+            TarArchiveEntry tarArchiveEntry;
+            while ((tarArchiveEntry = tarArchiveInputStream.getNextTarEntry()) != null) {
+                long dataOffset = tarArchiveInputStream.getBytesRead();
+                long headerOffset = nextHeaderOffset >= 0 ? nextHeaderOffset : dataOffset - TAR_BLOCK_SIZE;
+                boolean regular = TarExtractor.isRegularFile(tarArchiveEntry) && !tarArchiveEntry.isSparse();
+                //链接、设备等文件头之后的数据按记录的大小存放，只有稀疏文件的数据长度无法由文件头确定
+                nextHeaderOffset = !tarArchiveEntry.isSparse() ?
+                        dataOffset + (tarArchiveEntry.getSize() + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE : -1;
+                if (!regular && !tarArchiveEntry.isDirectory())
+                    continue;
+
+                ArchiveIndexEntry entry = new ArchiveIndexEntry();
+                entry.setName(normalize(tarArchiveEntry.getName()));
+                entry.setDirectory(tarArchiveEntry.isDirectory());
+                entry.setHeaderOffset(headerOffset);
+                entry.setDataOffset(dataOffset);
+                entry.setSize(tarArchiveEntry.isDirectory() ? 0 : tarArchiveEntry.getSize());
+                entry.setModifyTime(tarArchiveEntry.getModTime().getTime());
+                entries.add(entry);
+            }
+        }
+        return new ArchiveEntryIndex(archiveFile, Format.TAR, compression, false, entries);
+    }
+
+    /**
+     * junrar打开压缩包时读取全部文件头，跳过数据部分
+     */
+    private static ArchiveEntryIndex scanRar(File archiveFile) throws IOException {
+        List<ArchiveIndexEntry> entries = new ArrayList<>();
+        boolean solid;
+        try (Archive archive = new Archive(archiveFile, null)) {
+            if (archive.isEncrypted())
+                throw new IOException("压缩包：" + archiveFile.getName() + " 已加密");
+            solid = archive.getMainHeader().isSolid();
+            for (FileHeader fileHeader : archive.getFileHeaders()) {
+                String name = fileHeader.getFileNameW();
+                if (name == null || name.isEmpty())
+                    name = fileHeader.getFileNameString();
+                ArchiveIndexEntry entry = new ArchiveIndexEntry();
+                entry.setName(normalize(name));
+                entry.setDirectory(fileHeader.isDirectory());
+                entry.setHeaderOffset(fileHeader.getPositionInFile());
+                entry.setDataOffset(fileHeader.getPositionInFile() + fileHeader.getHeaderSize());
+                entry.setSize(fileHeader.isDirectory() ? 0 : fileHeader.getFullUnpackSize());
+                entry.setModifyTime(fileHeader.getMTime() == null ? 0 : fileHeader.getMTime().getTime());
+                entries.add(entry);
+            }
+        } catch (RarException e) {
+            throw new IOException("读取压缩包：" + archiveFile.getName() + " 错误", e);
+        }
+        return new ArchiveEntryIndex(archiveFile, Format.RAR, null, solid, entries);
+    }
+
+    /**
+     * 读取索引文件，压缩包大小或修改时间与索引不一致时返回null
+     */
+    private static ArchiveEntryIndex load(File archiveFile, File indexFile) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION)
+                return null;
+            if (inputStream.readLong() != archiveFile.length() || inputStream.readLong() != archiveFile.lastModified())
+                return null;
+            Format format = Format.values()[inputStream.readByte()];
+            int compressionOrdinal = inputStream.readByte();
+            TarExtractor.TarCompression compression = compressionOrdinal < 0 ? null : TarExtractor.TarCompression.values()[compressionOrdinal];
+            boolean solid = inputStream.readBoolean();
+            int count = inputStream.readInt();
+            if (count < 0)
+                throw new IOException("压缩包索引：" + indexFile.getName() + " 已损坏");
+            List<ArchiveIndexEntry> entries = new ArrayList<>(Math.min(count, 1 << 16));
+            for (int index = 0; index < count; index++) {
+                ArchiveIndexEntry entry = new ArchiveIndexEntry();
+                entry.setName(inputStream.readUTF());
+                entry.setDirectory(inputStream.readBoolean());
+                entry.setHeaderOffset(inputStream.readLong());
+                entry.setDataOffset(inputStream.readLong());
+                entry.setSize(inputStream.readLong());
+                entry.setModifyTime(inputStream.readLong());
+                entries.add(entry);
+            }
+            return new ArchiveEntryIndex(archiveFile, format, compression, solid, entries);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("压缩包索引：" + indexFile.getName() + " 已损坏", e);
+        }
+    }
+
+    /**
+     * 先写入临时文件再替换，避免并发读取到写了一半的索引；
+     * 临时文件名唯一，同时为同一压缩包生成索引的进程或线程互不覆盖
+     */
+    private void save(File indexFile) throws IOException {
+        File tempFile = Files.createTempFile(indexFile.getAbsoluteFile().getParentFile().toPath(), indexFile.getName(), ".tmp").toFile();
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(archiveFile.length());
+            outputStream.writeLong(archiveFile.lastModified());
+            outputStream.writeByte(format.ordinal());
+            outputStream.writeByte(compression == null ? -1 : compression.ordinal());
+            outputStream.writeBoolean(solid);
+            outputStream.writeInt(entries.size());
+            for (ArchiveIndexEntry entry : entries) {
+                outputStream.writeUTF(entry.getName());
+                outputStream.writeBoolean(entry.isDirectory());
+                outputStream.writeLong(entry.getHeaderOffset());
+                outputStream.writeLong(entry.getDataOffset());
+                outputStream.writeLong(entry.getSize());
+                outputStream.writeLong(entry.getModifyTime());
+            }
+            outputStream.close();
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+    }
+
+    private static File indexFile(File archiveFile){
+        return new File(archiveFile.getPath() + INDEX_SUFFIX);
+    }
+
+    private static boolean isRar(File archiveFile) throws IOException {
+        byte[] header = new byte[RAR_HEADER.length];
+        try (InputStream inputStream = new FileInputStream(archiveFile)) {
+            return inputStream.read(header) == header.length && Arrays.equals(header, RAR_HEADER);
+        }
+    }
+
+    private static String normalize(String entryName){
+        String name = entryName.replace('\\', '/');
+        while (name.startsWith("./"))
+            name = name.substring(2);
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * 压缩包中一个文件的只读通道，位置相对于文件数据的起始位置
+     */
+    private static class EntryChannel implements SeekableByteChannel {
+        private final FileChannel fileChannel;
+        private final long offset;
+        private final long size;
+        private long position;
+
+        EntryChannel(FileChannel fileChannel, long offset, long size){
+            this.fileChannel = fileChannel;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!isOpen())
+                throw new ClosedChannelException();
+            long remaining = size - position;
+            if (remaining <= 0)
+                return -1;
+            int length = (int) Math.min(remaining, dst.remaining());
+            ByteBuffer window = dst.duplicate();
+            window.limit(window.position() + length);
+            int read = fileChannel.read(window, offset + position);
+            if (read > 0) {
+                dst.position(dst.position() + read);
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public int write(ByteBuffer src){
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            if (!isOpen())
+                throw new ClosedChannelException();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            if (newPosition < 0)
+                throw new IllegalArgumentException("position不能为负数");
+            if (!isOpen())
+                throw new ClosedChannelException();
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            if (!isOpen())
+                throw new ClosedChannelException();
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size){
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen(){
+            return fileChannel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            fileChannel.close();
+        }
+    }
+}
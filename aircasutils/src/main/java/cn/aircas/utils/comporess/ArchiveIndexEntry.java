@@ -0,0 +1,23 @@
+package cn.aircas.utils.comporess;
+
+import lombok.Data;
+
+/**
+ * 压缩包索引中的一个文件
+ * tar文件的偏移量为解压后tar数据流中的位置，未压缩的tar即为文件中的位置；rar文件的偏移量为文件中的位置
+ * @author vanishrain
+ */
+@Data
+public class ArchiveIndexEntry {
+    //压缩包内的路径，分隔符统一为/
+    private String name;
+    private boolean directory;
+    //文件头的偏移量，tar文件包含长文件名等扩展头
+    private long headerOffset;
+    //文件数据的偏移量
+    private long dataOffset;
+    //解压后的大小
+    private long size;
+    //修改时间，毫秒
+    private long modifyTime;
+}
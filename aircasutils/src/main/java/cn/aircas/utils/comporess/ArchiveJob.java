@@ -0,0 +1,155 @@
+package cn.aircas.utils.comporess;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 异步解压缩任务，由ArchiveJobService创建
+ * 通过getFuture()等待完成或组合后续操作；cancel()中断执行线程，并在下一次写出数据时终止解压缩，
+ * 执行中的任务在执行线程退出后才以CancellationException完成，已写出的文件不会被删除
+ * @author vanishrain
+ */
+public class ArchiveJob {
+
+    private final String name;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private final ArchiveProgressListener listener;
+    private final LongAdder bytesProcessed = new LongAdder();
+    private final LongAdder entriesProcessed = new LongAdder();
+    private volatile boolean cancelled;
+    //正在执行任务的线程，未开始或已结束时为null
+    private Thread runner;
+
+    ArchiveJob(String name, ArchiveProgressListener listener){
+        this.name = name;
+        this.listener = listener == null ? new ArchiveProgressListener() {} : listener;
+        //调用方直接取消future时同样中断任务
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled())
+                cancel();
+        });
+    }
+
+    /**
+     * 任务名称，为源文件路径
+     * @return
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * 任务结果，失败时以IOException完成，取消时以CancellationException完成
+     * @return
+     */
+    public CompletableFuture<Void> getFuture(){
+        return future;
+    }
+
+    /**
+     * 已处理的字节数，解压为写出的字节数，压缩为读取的源文件字节数
+     * @return
+     */
+    public long getBytesProcessed(){
+        return bytesProcessed.sum();
+    }
+
+    /**
+     * 已处理完成的文件数
+     * @return
+     */
+    public long getEntriesProcessed(){
+        return entriesProcessed.sum();
+    }
+
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    public boolean isDone(){
+        return future.isDone();
+    }
+
+    /**
+     * 取消任务，排队中的任务不再执行并立即完成；执行中的任务在下一次写出数据或处理下一个文件时终止，
+     * 清理完临时文件后完成
+     */
+    public void cancel(){
+        if (cancelled)
+            return;
+        cancelled = true;
+        synchronized (this) {
+            if (runner != null) {
+                runner.interrupt();
+                return;
+            }
+        }
+        future.completeExceptionally(new CancellationException("任务：" + name + " 已取消"));
+    }
+
+    /**
+     * 在当前线程执行任务
+     */
+    void run(ArchiveTask task){
+        synchronized (this) {
+            if (cancelled || future.isDone())
+                return;
+            runner = Thread.currentThread();
+        }
+        try {
+            task.run(progressListener());
+            future.complete(null);
+        } catch (Throwable e) {
+            if (cancelled)
+                future.completeExceptionally(new CancellationException("任务：" + name + " 已取消"));
+            else
+                future.completeExceptionally(e);
+        } finally {
+            synchronized (this) {
+                runner = null;
+                //清除取消时设置的中断标志，线程归还线程池后继续执行其他任务
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * 统计进度并检查取消标志的回调，在解压缩线程中调用
+     */
+    private ArchiveProgressListener progressListener(){
+        return new ArchiveProgressListener() {
+            @Override
+            public void onEntryStart(String entryName, long size) {
+                checkCancelled();
+                listener.onEntryStart(entryName, size);
+            }
+
+            @Override
+            public void onBytes(long bytes) {
+                checkCancelled();
+                bytesProcessed.add(bytes);
+                listener.onBytes(bytes);
+            }
+
+            @Override
+            public void onEntryComplete(String entryName, long bytes) {
+                entriesProcessed.increment();
+                listener.onEntryComplete(entryName, bytes);
+            }
+        };
+    }
+
+    private void checkCancelled(){
+        if (cancelled)
+            throw new CancellationException("任务：" + name + " 已取消");
+    }
+
+    /**
+     * 具体的解压缩操作
+     */
+    interface ArchiveTask {
+        void run(ArchiveProgressListener listener) throws IOException;
+    }
+}
@@ -0,0 +1,126 @@
+package cn.aircas.utils.comporess;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步解压缩服务
+ * 所有任务共用一个线程池，同时执行的任务数不超过上限，超出的任务排队等待，避免一个大文件的解压缩占满磁盘和CPU；
+ * 每个任务内部的并行线程数按处理器数平分
+ * @author vanishrain
+ */
+@Slf4j
+public class ArchiveJobService {
+
+    private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+
+    private static int maxConcurrentJobs = 2;
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "archive-job-" + THREAD_INDEX.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 设置同时执行的任务数上限，对排队中的任务同样生效
+     * @param jobs
+     */
+    public static synchronized void setMaxConcurrentJobs(int jobs){
+        int limit = Math.max(1, jobs);
+        //先调整较大的一端，保证核心线程数不超过最大线程数
+        if (limit > EXECUTOR.getMaximumPoolSize()) {
+            EXECUTOR.setMaximumPoolSize(limit);
+            EXECUTOR.setCorePoolSize(limit);
+        } else {
+            EXECUTOR.setCorePoolSize(limit);
+            EXECUTOR.setMaximumPoolSize(limit);
+        }
+        maxConcurrentJobs = limit;
+    }
+
+    public static synchronized int getMaxConcurrentJobs(){
+        return maxConcurrentJobs;
+    }
+
+    /**
+     * 排队等待执行的任务数
+     * @return
+     */
+    public static int getQueuedJobs(){
+        return EXECUTOR.getQueue().size();
+    }
+
+    /**
+     * 异步解压缩zip、rar、tar文件
+     * @param srcPath 压缩包路径
+     * @param destPath 输出目录
+     * @param delete 完成后是否删除压缩包
+     * @param listener 进度回调，可为null，zip文件多线程解压时需要线程安全
+     * @return
+     */
+    public static ArchiveJob submitDecompress(String srcPath, String destPath, boolean delete, ArchiveProgressListener listener){
+        ArchiveJob archiveJob = new ArchiveJob(srcPath, listener);
+        submit(archiveJob, progressListener ->
+                CompressUtil.decompress(srcPath, destPath, delete, jobParallelism(), progressListener));
+        return archiveJob;
+    }
+
+    /**
+     * 异步压缩文件（夹）为zip，按默认策略决定每个文件直接存储还是压缩
+     * @param srcDir 源文件(夹)路径
+     * @param outputStream 输出流，完成后关闭
+     * @param listener 进度回调，可为null，需要线程安全
+     * @return
+     */
+    public static ArchiveJob submitToZip(String srcDir, OutputStream outputStream, ArchiveProgressListener listener){
+        return submitToZip(srcDir, outputStream, ZipCompressionPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * 异步压缩文件（夹）为zip
+     * @param srcDir 源文件(夹)路径
+     * @param outputStream 输出流，完成后关闭
+     * @param policy 压缩策略
+     * @param listener 进度回调，可为null，需要线程安全
+     * @return
+     */
+    public static ArchiveJob submitToZip(String srcDir, OutputStream outputStream, ZipCompressionPolicy policy,
+                                         ArchiveProgressListener listener){
+        ArchiveJob archiveJob = new ArchiveJob(srcDir, listener);
+        submit(archiveJob, progressListener ->
+                ParallelZipCompressor.compress(new File(srcDir), outputStream, jobParallelism(), policy, progressListener));
+        return archiveJob;
+    }
+
+    private static void submit(ArchiveJob archiveJob, ArchiveJob.ArchiveTask task){
+        EXECUTOR.execute(() -> {
+            long begin = System.nanoTime();
+            archiveJob.run(task);
+            archiveJob.getFuture().whenComplete((result, throwable) -> {
+                if (throwable != null && !archiveJob.isCancelled())
+                    log.error("任务：{} 失败", archiveJob.getName(), throwable);
+                else
+                    log.info("任务：{} 结束，耗时：{}ms", archiveJob.getName(), (System.nanoTime() - begin) / 1000000);
+            });
+        });
+    }
+
+    /**
+     * 每个任务内部的并行线程数，同时执行的任务平分处理器
+     */
+    private static int jobParallelism(){
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / getMaxConcurrentJobs());
+    }
+}
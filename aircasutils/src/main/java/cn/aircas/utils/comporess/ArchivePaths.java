@@ -0,0 +1,30 @@
+package cn.aircas.utils.comporess;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 压缩包内文件的输出路径
+ * @author vanishrain
+ */
+class ArchivePaths {
+
+    /**
+     * 计算压缩包内文件的输出路径，拒绝通过../或绝对路径写到输出目录之外的文件（zip slip）
+     * @param destDir 输出目录
+     * @param entryName 压缩包内的文件名
+     * @return
+     * @throws IOException 文件名指向输出目录之外
+     */
+    static File resolve(File destDir, String entryName) throws IOException {
+        String destPath = destDir.getCanonicalPath();
+        String name = entryName.replace('\\', '/');
+        while (name.startsWith("/"))
+            name = name.substring(1);
+        File entryFile = new File(destPath, name);
+        String entryPath = entryFile.getCanonicalPath();
+        if (!entryPath.equals(destPath) && !entryPath.startsWith(destPath + File.separator))
+            throw new IOException("压缩包内的文件：" + entryName + " 超出了解压目录");
+        return entryFile;
+    }
+}
@@ -0,0 +1,31 @@
+package cn.aircas.utils.comporess;
+
+/**
+ * 解压缩进度回调，在解压线程中调用，多线程解压时实现需要线程安全
+ * @author vanishrain
+ */
+public interface ArchiveProgressListener {
+
+    /**
+     * 开始处理一个文件
+     * @param entryName 压缩包内的文件名
+     * @param size 文件大小，未知时为-1
+     */
+    default void onEntryStart(String entryName, long size){
+    }
+
+    /**
+     * 写出了一段数据
+     * @param bytes 本次写出的字节数
+     */
+    default void onBytes(long bytes){
+    }
+
+    /**
+     * 一个文件处理完成
+     * @param entryName 压缩包内的文件名
+     * @param bytes 文件写出的总字节数
+     */
+    default void onEntryComplete(String entryName, long bytes){
+    }
+}
@@ -0,0 +1,26 @@
+package cn.aircas.utils.comporess;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 解压缩时读取输入流的工具方法
+ * @author vanishrain
+ */
+class ArchiveStreams {
+
+    /**
+     * 读取数据直到填满缓冲区或到达流末尾
+     * @param inputStream 输入流
+     * @param buffer 缓冲区
+     * @return 读取的字节数，小于缓冲区长度时表示已到达流末尾
+     * @throws IOException
+     */
+    static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) != -1)
+            length += read;
+        return length;
+    }
+}
@@ -1,19 +1,18 @@
 package cn.aircas.utils.comporess;
 
 import cn.aircas.utils.file.FileUtils;
+import cn.aircas.utils.metrics.Metrics;
 import com.github.junrar.Archive;
+import com.github.junrar.exception.RarException;
 import com.github.junrar.rarfile.FileHeader;
 import lombok.extern.slf4j.Slf4j;
-import net.lingala.zip4j.exception.ZipException;
-import net.lingala.zip4j.progress.ProgressMonitor;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.*;
-import java.nio.charset.Charset;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -68,7 +67,7 @@ public class CompressUtil {
         if (Arrays.equals(fileHeader,ZIP_HEADER) || Arrays.equals(fileHeader, ZIP_OLD_HEADER))
             return CompressFileType.ZIP;
 
-        if (Arrays.equals(tarFileHeader,TAR_HEADER))
+        if (Arrays.equals(tarFileHeader,TAR_HEADER) || TarExtractor.detect(new File(filePath)) != null)
             return CompressFileType.TAR;
 
         return null;
@@ -76,39 +75,15 @@ public class CompressUtil {
 
 
     /**
-     * 解压缩zip文件夹
-     * @param srcFile
-     * @param destFile
-     * @return
-     * @throws Exception
-     */
-    /**
-     * 解压缩zip文件
+     * 解压缩zip文件，多个文件并行解压
      * @param srcFile
      * @param destFile
+     * @param parallelism 解压线程数
+     * @param listener 进度回调
      */
-    private static void unZipFile(File srcFile, File destFile) throws IOException {
+    private static void unZipFile(File srcFile, File destFile, int parallelism, ArchiveProgressListener listener) throws IOException {
         log.info("开始解压缩文件：{}",srcFile.getAbsolutePath());
-        net.lingala.zip4j.ZipFile zipFile = new net.lingala.zip4j.ZipFile(srcFile);
-        ProgressMonitor processMonitor = zipFile.getProgressMonitor();
-        zipFile.setRunInThread(true);
-        zipFile.setCharset(Charset.forName("GBK"));
-
-
-        String fileName = null;
-        try {
-            zipFile.extractAll(destFile.getAbsolutePath());
-            while(processMonitor.getState().equals(ProgressMonitor.State.BUSY)){
-                String currentFileName = processMonitor.getFileName();
-                if (currentFileName!=null && !currentFileName.equals(fileName)){
-                    fileName = currentFileName;
-                    log.info("正在解压缩文件：{}",currentFileName);
-                }
-                Thread.sleep(100);
-            }
-        }catch (ZipException | InterruptedException e) {
-            log.error("解压缩文件：{} 错误",fileName);
-        }
+        ParallelZipExtractor.extract(srcFile, destFile, parallelism, listener);
         log.info("解压缩文件：{}完成",srcFile.getAbsolutePath());
     }
 
@@ -172,14 +147,25 @@ public class CompressUtil {
      * 解压缩rar文件
      * @param srcFile
      * @param destFile
+     * @param listener 进度回调
      * @return
-     * @throws Exception
+     * @throws IOException
      */
-    private static void unRarFile(File srcFile, File destFile) throws Exception {
+    private static void unRarFile(File srcFile, File destFile, ArchiveProgressListener listener) throws IOException {
         log.info("开始解压缩文件：{}",srcFile.getAbsolutePath());
-        Archive archive = new Archive(new FileInputStream(srcFile));
+        try (Archive archive = new Archive(new FileInputStream(srcFile))) {
+            unRarEntries(archive, destFile, listener);
+        } catch (RarException e) {
+            throw new IOException("解压缩文件：" + srcFile.getName() + " 错误", e);
+        }
+        log.info("解压缩文件：{}完成",srcFile.getAbsolutePath());
+    }
+
+    private static void unRarEntries(Archive archive, File destFile, ArchiveProgressListener listener) throws IOException, RarException {
         FileHeader fileHeader = archive.nextFileHeader();
         while(fileHeader!=null){
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("解压缩文件：" + destFile.getName() + " 被中断");
             String fileHeaderName = fileHeader.getFileNameW();
             String middlePath = null;
             if (!existZH(fileHeaderName)) {
@@ -207,56 +193,34 @@ public class CompressUtil {
                     fileHeaderFile.createNewFile();
                 }
 
-                FileOutputStream fileOutputStream = new FileOutputStream(fileHeaderFile);
-                archive.extractFile(fileHeader,fileOutputStream);
-                fileOutputStream.close();
+                listener.onEntryStart(fileHeader.getFileNameString(), fileHeader.getFullUnpackSize());
+                //写出时回调进度，取消任务时在写出过程中终止
+                try (OutputStream fileOutputStream = new FilterOutputStream(new FileOutputStream(fileHeaderFile)) {
+                    @Override
+                    public void write(byte[] buffer, int offset, int length) throws IOException {
+                        out.write(buffer, offset, length);
+                        listener.onBytes(length);
+                    }
+                }) {
+                    archive.extractFile(fileHeader,fileOutputStream);
+                }
+                Metrics.increment(Metrics.ARCHIVE_ENTRIES, 1);
+                Metrics.increment(Metrics.ARCHIVE_BYTES, fileHeader.getFullUnpackSize());
+                listener.onEntryComplete(fileHeader.getFileNameString(), fileHeader.getFullUnpackSize());
             }
             fileHeader = archive.nextFileHeader();
         }
-        archive.close();
-        log.info("解压缩文件：{}完成",srcFile.getAbsolutePath());
     }
 
-    private static void unTarFile(File srcFile, File destFile) throws Exception {
+    /**
+     * 解压缩tar文件，支持gzip、bzip2、xz、zstd压缩的tar文件
+     * @param srcFile
+     * @param destFile
+     * @param listener 进度回调
+     */
+    private static void unTarFile(File srcFile, File destFile, ArchiveProgressListener listener) throws IOException {
         log.info("开始解压缩文件：{}",srcFile.getAbsolutePath());
-        System.setProperty("sun.tar.encoding",System.getProperty("sun.jnu.encoding"));
-        TarArchiveInputStream tarArchiveInputStream = new TarArchiveInputStream(new FileInputStream(srcFile));
-        TarArchiveEntry tarArchiveEntry = tarArchiveInputStream.getNextTarEntry();
-        while(tarArchiveEntry!=null){
-
-            String fileHeaderName = FilenameUtils.normalize(tarArchiveEntry.getName());
-            String middlePath = null;
-            try{
-                middlePath = fileHeaderName.substring(0,fileHeaderName.lastIndexOf(File.separator));
-            }catch (Exception e){
-                middlePath="";
-            }
-            try {
-                fileHeaderName = fileHeaderName.substring(fileHeaderName.lastIndexOf
-                        (File.separator)+1);
-            }catch (Exception e){
-                fileHeaderName = "";
-            }
-            File archiveEntryFile = FileUtils.getFile(destFile.getAbsolutePath()+File.separator
-                    + middlePath,fileHeaderName);
-            if (tarArchiveEntry.isDirectory())
-                archiveEntryFile.mkdirs();
-            else {
-                if (!archiveEntryFile.getParentFile().exists())
-                    archiveEntryFile.mkdirs();
-
-                byte[] buffer = new byte[1024];
-                BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(archiveEntryFile));
-                while(tarArchiveInputStream.read(buffer)!=-1){
-                    bufferedOutputStream.write(buffer);
-                    bufferedOutputStream.flush();
-                }
-                bufferedOutputStream.close();
-            }
-            tarArchiveEntry = tarArchiveInputStream.getNextTarEntry();
-        }
-
-        tarArchiveInputStream.close();
+        TarExtractor.extract(srcFile, destFile, listener);
         log.info("解压缩文件：{}完成",srcFile.getAbsolutePath());
     }
 
@@ -264,24 +228,47 @@ public class CompressUtil {
     /*
     * 解压缩文件
     * */
-    public static void decompress(String srcPath, String destPath, boolean delete) throws Exception
+    public static void decompress(String srcPath, String destPath, boolean delete) throws IOException
+    {
+        decompress(srcPath, destPath, delete, ParallelZipExtractor.defaultParallelism(), null);
+    }
+
+    /**
+     * 解压缩文件，异步执行见ArchiveJobService
+     * @param srcPath 压缩包路径
+     * @param destPath 输出目录
+     * @param delete 解压成功后是否删除压缩包
+     * @param parallelism zip文件的解压线程数
+     * @param listener 进度回调，可为null，zip文件多线程解压时需要线程安全
+     * @throws IOException 文件不存在、不是压缩格式、解压失败或被中断（InterruptedIOException）
+     */
+    public static void decompress(String srcPath, String destPath, boolean delete, int parallelism,
+                                  ArchiveProgressListener listener) throws IOException
     {
         File srcFile = new File(srcPath);
         File destFile = new File(destPath);
         if (!srcFile.exists() || srcFile.length() ==0)
-            throw new Exception("文件：" + srcFile.getName() + " 不存在");
+            throw new FileNotFoundException("文件：" + srcFile.getName() + " 不存在");
         if (!destFile.exists())
             destFile.mkdirs();
 
         CompressFileType fileType = getCompressFileType(srcPath);
         if (fileType == null)
-            throw new Exception("文件：" + srcFile.getName() + " 不是压缩格式");
+            throw new IOException("文件：" + srcFile.getName() + " 不是压缩格式");
 
+        ArchiveProgressListener progressListener = listener != null ? listener : new ArchiveProgressListener() {
+            @Override
+            public void onEntryComplete(String entryName, long bytes) {
+                log.debug("解压缩文件：{} 完成，大小：{}",entryName,bytes);
+            }
+        };
+        long begin = System.nanoTime();
         switch (fileType){
-            case RAR:unRarFile(srcFile,destFile); break;
-            case TAR:unTarFile(srcFile,destFile); break;
-            case ZIP:unZipFile(srcFile,destFile); break;
+            case RAR:unRarFile(srcFile,destFile,progressListener); break;
+            case TAR:unTarFile(srcFile,destFile,progressListener); break;
+            case ZIP:unZipFile(srcFile,destFile,parallelism,progressListener); break;
         }
+        Metrics.recordSince(Metrics.ARCHIVE_EXTRACT, begin);
 
         if(delete)
             srcFile.delete();
@@ -289,6 +276,49 @@ public class CompressUtil {
 
 
 
+    /**
+     * 列出tar、rar文件中的文件，首次调用时生成索引并保存在压缩包旁的.idx文件中
+     * @param srcPath 压缩包路径
+     * @return
+     * @throws IOException
+     */
+    public static List<ArchiveIndexEntry> listEntries(String srcPath) throws IOException {
+        return ArchiveEntryIndex.open(new File(srcPath)).getEntries();
+    }
+
+    /**
+     * 从tar、rar文件中提取单个文件，根据索引直接定位，不解压前面的文件
+     * @param srcPath 压缩包路径
+     * @param entryName 压缩包内的路径
+     * @param destPath 输出文件路径
+     * @throws IOException
+     */
+    public static void extractEntry(String srcPath, String entryName, String destPath) throws IOException {
+        ArchiveEntryIndex.open(new File(srcPath)).extract(entryName, new File(destPath), null);
+    }
+
+    /**
+     * 以输入流读取tar、rar文件中的单个文件，使用完后需要关闭
+     * @param srcPath 压缩包路径
+     * @param entryName 压缩包内的路径
+     * @return
+     * @throws IOException
+     */
+    public static InputStream openEntry(String srcPath, String entryName) throws IOException {
+        return ArchiveEntryIndex.open(new File(srcPath)).openStream(entryName);
+    }
+
+    /**
+     * 以可定位的通道读取未压缩tar文件中的单个文件，使用完后需要关闭
+     * @param srcPath 压缩包路径
+     * @param entryName 压缩包内的路径
+     * @return
+     * @throws IOException 压缩包不支持随机访问
+     */
+    public static SeekableByteChannel openEntryChannel(String srcPath, String entryName) throws IOException {
+        return ArchiveEntryIndex.open(new File(srcPath)).openChannel(entryName);
+    }
+
     /**
      * 压缩文件，指定输出流
      * @param srcDir 源文件(夹)路径
@@ -296,10 +326,30 @@ public class CompressUtil {
      * @throws IOException
      */
     public static void toZip(String srcDir, OutputStream outputStream) throws IOException {
-        File srcDirFile = new File(srcDir);
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        compress(srcDirFile,zipOutputStream);
-        zipOutputStream.close();
+        toZip(srcDir,outputStream,ParallelZipCompressor.defaultParallelism());
+    }
+
+    /**
+     * 多线程压缩文件，指定输出流
+     * @param srcDir 源文件(夹)路径
+     * @param outputStream 输出流，完成后关闭
+     * @param parallelism 压缩线程数
+     * @throws IOException
+     */
+    public static void toZip(String srcDir, OutputStream outputStream, int parallelism) throws IOException {
+        ParallelZipCompressor.compress(new File(srcDir),outputStream,parallelism);
+    }
+
+    /**
+     * 多线程压缩文件，按策略决定每个文件直接存储还是压缩，已压缩的影像、图片直接存储
+     * @param srcDir 源文件(夹)路径
+     * @param outputStream 输出流，完成后关闭
+     * @param parallelism 压缩线程数
+     * @param policy 压缩策略，ZipCompressionPolicy.ALWAYS_DEFLATE为全部压缩
+     * @throws IOException
+     */
+    public static void toZip(String srcDir, OutputStream outputStream, int parallelism, ZipCompressionPolicy policy) throws IOException {
+        ParallelZipCompressor.compress(new File(srcDir),outputStream,parallelism,policy);
     }
 
 //    /**
@@ -317,7 +367,7 @@ public class CompressUtil {
     }
 
     public static void compressToZip(File srcFile, ZipOutputStream zipOutputStream, String inZipName) throws IOException {
-        byte[] buffer = new byte[1024];
+        byte[] buffer = new byte[64 * 1024];
         if (srcFile.isFile()){
             int length = 0;
             zipOutputStream.putNextEntry(new ZipEntry(inZipName));
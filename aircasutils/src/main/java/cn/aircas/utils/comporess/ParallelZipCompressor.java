@@ -0,0 +1,229 @@
+package cn.aircas.utils.comporess;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+/**
+ * zip文件多线程压缩
+ * 各文件在线程池中分别压缩到临时的分散存储中，全部完成后依次写入最终的压缩包，
+ * 生成的是标准zip文件，可用常规解压工具解压
+ * @author vanishrain
+ */
+@Slf4j
+public class ParallelZipCompressor {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long TERMINATION_TIMEOUT_SECONDS = 10;
+
+    /**
+     * 默认压缩线程数
+     * @return
+     */
+    public static int defaultParallelism(){
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * 压缩文件夹下的所有文件，压缩包内不包含文件夹本身；源路径是文件时只压缩该文件
+     * @param srcFile 源文件（夹）
+     * @param outputStream 输出流，完成后关闭
+     * @param parallelism 压缩线程数
+     * @throws IOException
+     */
+    public static void compress(File srcFile, OutputStream outputStream, int parallelism) throws IOException {
+        compress(srcFile, outputStream, parallelism, ZipCompressionPolicy.DEFAULT);
+    }
+
+    /**
+     * 压缩文件夹下的所有文件，按策略决定每个文件直接存储还是deflate压缩
+     * commons-compress 1.18的并行压缩不支持设置压缩级别，deflate统一使用默认级别
+     * @param srcFile 源文件（夹）
+     * @param outputStream 输出流，完成后关闭
+     * @param parallelism 压缩线程数
+     * @param policy 压缩策略，在压缩线程中判断
+     * @throws IOException
+     */
+    public static void compress(File srcFile, OutputStream outputStream, int parallelism, ZipCompressionPolicy policy) throws IOException {
+        compress(srcFile, outputStream, parallelism, policy, null);
+    }
+
+    /**
+     * 压缩文件夹下的所有文件，按策略决定每个文件直接存储还是deflate压缩
+     * @param srcFile 源文件（夹）
+     * @param outputStream 输出流，完成后关闭
+     * @param parallelism 压缩线程数
+     * @param policy 压缩策略，在压缩线程中判断
+     * @param listener 进度回调，可为null，在压缩线程中调用，需要线程安全；字节数为读取的源文件字节数
+     * @throws IOException
+     */
+    public static void compress(File srcFile, OutputStream outputStream, int parallelism, ZipCompressionPolicy policy,
+                                ArchiveProgressListener listener) throws IOException {
+        ArchiveProgressListener progressListener = listener == null ? new ArchiveProgressListener() {} : listener;
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        List<FileBasedScatterGatherBackingStore> backingStores = Collections.synchronizedList(new ArrayList<>());
+        ParallelScatterZipCreator scatterZipCreator = new ParallelScatterZipCreator(executorService, () -> {
+            FileBasedScatterGatherBackingStore backingStore = new FileBasedScatterGatherBackingStore(
+                    File.createTempFile("parallelscatter", ".tmp"));
+            backingStores.add(backingStore);
+            return backingStore;
+        });
+        try (ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE))) {
+            if (srcFile.isFile()) {
+                addEntry(scatterZipCreator, srcFile, srcFile.getName(), policy, progressListener);
+            } else {
+                File[] childFiles = srcFile.listFiles();
+                if (childFiles == null)
+                    throw new FileNotFoundException("文件夹：" + srcFile.getAbsolutePath() + " 不存在");
+                for (File childFile : childFiles)
+                    addEntries(scatterZipCreator, childFile, childFile.getName(), policy, progressListener);
+            }
+            scatterZipCreator.writeTo(zipOutputStream);
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("压缩文件：" + srcFile.getName() + " 被中断");
+        } catch (ExecutionException e) {
+            executorService.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof CancellationException)
+                throw (CancellationException) cause;
+            throw new IOException("压缩文件：" + srcFile.getName() + " 错误", cause);
+        } finally {
+            executorService.shutdownNow();
+            deleteBackingStores(executorService, backingStores);
+        }
+    }
+
+    /**
+     * 删除各线程的临时文件，writeTo只在成功时删除，失败、中断和取消时由这里删除
+     * 先等待压缩线程退出，避免删除正在写入的文件及之后线程再创建临时文件；
+     * 取消任务时当前线程已被中断，等待时暂时清除中断标志，结束后恢复
+     */
+    private static void deleteBackingStores(ExecutorService executorService, List<FileBasedScatterGatherBackingStore> backingStores){
+        boolean interrupted = Thread.interrupted();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TERMINATION_TIMEOUT_SECONDS);
+        try {
+            while (!executorService.isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    log.warn("压缩线程未在{}秒内退出", TERMINATION_TIMEOUT_SECONDS);
+                    break;
+                }
+                try {
+                    executorService.awaitTermination(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        synchronized (backingStores) {
+            for (FileBasedScatterGatherBackingStore backingStore : backingStores) {
+                try {
+                    backingStore.close();
+                } catch (IOException e) {
+                    log.warn("删除压缩临时文件失败", e);
+                }
+            }
+        }
+    }
+
+    private static void addEntries(ParallelScatterZipCreator scatterZipCreator, File srcFile, String inZipName, ZipCompressionPolicy policy,
+                                   ArchiveProgressListener listener){
+        if (srcFile.isFile()) {
+            addEntry(scatterZipCreator, srcFile, inZipName, policy, listener);
+            return;
+        }
+        ZipArchiveEntry directoryEntry = new ZipArchiveEntry(srcFile, inZipName + "/");
+        directoryEntry.setMethod(ZipEntry.STORED);
+        scatterZipCreator.addArchiveEntry(directoryEntry, () -> new ByteArrayInputStream(new byte[0]));
+
+        File[] childFiles = srcFile.listFiles();
+        if (childFiles == null)
+            return;
+        for (File childFile : childFiles)
+            addEntries(scatterZipCreator, childFile, inZipName + "/" + childFile.getName(), policy, listener);
+    }
+
+    private static void addEntry(ParallelScatterZipCreator scatterZipCreator, File srcFile, String inZipName, ZipCompressionPolicy policy,
+                                 ArchiveProgressListener listener){
+        scatterZipCreator.addArchiveEntry(() -> {
+            listener.onEntryStart(inZipName, srcFile.length());
+            ZipArchiveEntry zipArchiveEntry = new ZipArchiveEntry(srcFile, inZipName);
+            zipArchiveEntry.setMethod(policy.decide(srcFile).getMethod());
+            return ZipArchiveEntryRequest.createZipArchiveEntryRequest(zipArchiveEntry, () -> {
+                try {
+                    return new ProgressInputStream(new BufferedInputStream(new FileInputStream(srcFile), BUFFER_SIZE), inZipName, listener);
+                } catch (FileNotFoundException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        });
+    }
+
+    /**
+     * 读取源文件时回调进度，关闭时表示该文件压缩完成
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+        private final String entryName;
+        private final ArchiveProgressListener listener;
+        private long bytes;
+        private boolean closed;
+
+        ProgressInputStream(InputStream inputStream, String entryName, ArchiveProgressListener listener){
+            super(inputStream);
+            this.entryName = entryName;
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0)
+                progress(1);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0)
+                progress(read);
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!closed) {
+                closed = true;
+                listener.onEntryComplete(entryName, bytes);
+            }
+        }
+
+        private void progress(int read){
+            bytes += read;
+            listener.onBytes(read);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package cn.aircas.utils.comporess;
+
+import cn.aircas.utils.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * zip文件多线程解压
+ * 根据中央目录随机访问各个文件，多个线程各自打开压缩包并行解压不同的文件，通过FileChannel写出，
+ * 文件名默认按GBK解码（设置了UTF-8标志的文件名按UTF-8解码）
+ * @author vanishrain
+ */
+@Slf4j
+public class ParallelZipExtractor {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final Charset DEFAULT_CHARSET = Charset.forName("GBK");
+
+    /**
+     * 默认并发数，解压受磁盘限制，不超过8个线程
+     * @return
+     */
+    public static int defaultParallelism(){
+        return Math.min(8, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 解压zip文件
+     * @param srcFile zip文件
+     * @param destDir 输出目录
+     * @param parallelism 解压线程数
+     * @param listener 进度回调，可为null
+     * @throws IOException 解压失败，已解压的文件不会被删除
+     */
+    public static void extract(File srcFile, File destDir, int parallelism, ArchiveProgressListener listener) throws IOException {
+        ArchiveProgressListener progressListener = listener == null ? new ArchiveProgressListener() {} : listener;
+        List<ZipEntry> fileEntries = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(srcFile, DEFAULT_CHARSET)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                File entryFile = ArchivePaths.resolve(destDir, zipEntry.getName());
+                if (zipEntry.isDirectory())
+                    entryFile.mkdirs();
+                else
+                    fileEntries.add(zipEntry);
+            }
+        }
+        //大文件优先，避免最后只剩一个线程解压大文件
+        fileEntries.sort((first, second) -> Long.compare(second.getSize(), first.getSize()));
+
+        int threads = Math.max(1, Math.min(parallelism, fileEntries.size()));
+        AtomicInteger nextEntry = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for (int worker = 0; worker < threads; worker++) {
+            futures.add(executorService.submit(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                try (ZipFile zipFile = new ZipFile(srcFile, DEFAULT_CHARSET)) {
+                    int index;
+                    while (!failed.get() && (index = nextEntry.getAndIncrement()) < fileEntries.size()) {
+                        if (Thread.currentThread().isInterrupted())
+                            throw new InterruptedIOException("解压缩文件：" + srcFile.getName() + " 被中断");
+                        ZipEntry zipEntry = zipFile.getEntry(fileEntries.get(index).getName());
+                        extractEntry(zipFile, zipEntry, ArchivePaths.resolve(destDir, zipEntry.getName()), buffer, progressListener);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+                return null;
+            }));
+        }
+        executorService.shutdown();
+
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("解压缩文件：" + srcFile.getName() + " 被中断");
+        } catch (ExecutionException e) {
+            executorService.shutdownNow();
+            Throwable cause = e.getCause();
+            log.error("解压缩文件：{} 错误", srcFile.getAbsolutePath(), cause);
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("解压缩文件：" + srcFile.getName() + " 错误", cause);
+        }
+    }
+
+    private static void extractEntry(ZipFile zipFile, ZipEntry zipEntry, File entryFile, ByteBuffer buffer,
+                                     ArchiveProgressListener listener) throws IOException {
+        listener.onEntryStart(zipEntry.getName(), zipEntry.getSize());
+        File parentFile = entryFile.getParentFile();
+        if (parentFile != null && !parentFile.exists())
+            parentFile.mkdirs();
+
+        long written = 0;
+        byte[] bytes = buffer.array();
+        try (InputStream inputStream = zipFile.getInputStream(zipEntry);
+             FileChannel fileChannel = FileChannel.open(entryFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (true) {
+                //尽量填满缓冲区后再写出，减少系统调用
+                int length = ArchiveStreams.readFully(inputStream, bytes);
+                if (length == 0)
+                    break;
+                buffer.clear().limit(length);
+                while (buffer.hasRemaining())
+                    fileChannel.write(buffer);
+                written += length;
+                listener.onBytes(length);
+                if (length < bytes.length)
+                    break;
+            }
+        }
+        if (zipEntry.getTime() > 0)
+            entryFile.setLastModified(zipEntry.getTime());
+        Metrics.increment(Metrics.ARCHIVE_ENTRIES, 1);
+        Metrics.increment(Metrics.ARCHIVE_BYTES, written);
+        listener.onEntryComplete(zipEntry.getName(), written);
+    }
+}
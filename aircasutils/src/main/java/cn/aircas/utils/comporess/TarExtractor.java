@@ -0,0 +1,196 @@
+package cn.aircas.utils.comporess;
+
+import cn.aircas.utils.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * tar文件流式解压，支持gzip、bzip2、xz、zstd压缩的tar文件
+ * 根据文件头自动识别外层压缩格式；未压缩的tar文件直接从源文件通道传输到目标文件，不经过用户态缓冲，
+ * 压缩的tar文件解压到大缓冲区后通过FileChannel写出
+ * @author vanishrain
+ */
+@Slf4j
+public class TarExtractor {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final int TAR_MAGIC_OFFSET = 257;
+
+    private static final byte[] TAR_MAGIC = {'u','s','t','a','r'};
+
+    /**
+     * tar文件的外层压缩格式
+     */
+    public enum TarCompression {
+        NONE, GZIP, BZIP2, XZ, ZSTD
+    }
+
+    /**
+     * 判断文件是否为tar文件及其外层压缩格式
+     * @param srcFile
+     * @return 不是tar文件或外层压缩格式不可用（如缺少zstd-jni）时返回null
+     */
+    public static TarCompression detect(File srcFile){
+        byte[] header = new byte[6];
+        int length;
+        try (InputStream inputStream = new FileInputStream(srcFile)) {
+            length = ArchiveStreams.readFully(inputStream, header);
+        } catch (IOException e) {
+            return null;
+        }
+        TarCompression compression = compressionOf(header, length);
+        if (compression == null)
+            return null;
+
+        //外层为压缩格式时解压开头的512字节确认内容是tar
+        byte[] tarHeader = new byte[512];
+        try (InputStream inputStream = open(srcFile, compression)) {
+            if (ArchiveStreams.readFully(inputStream, tarHeader) < TAR_MAGIC_OFFSET + TAR_MAGIC.length)
+                return null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        byte[] magic = Arrays.copyOfRange(tarHeader, TAR_MAGIC_OFFSET, TAR_MAGIC_OFFSET + TAR_MAGIC.length);
+        return Arrays.equals(magic, TAR_MAGIC) ? compression : null;
+    }
+
+    /**
+     * 解压tar文件
+     * @param srcFile tar文件，可以是tar.gz、tar.bz2、tar.xz、tar.zst
+     * @param destDir 输出目录
+     * @param listener 进度回调，可为null
+     * @throws IOException
+     */
+    public static void extract(File srcFile, File destDir, ArchiveProgressListener listener) throws IOException {
+        ArchiveProgressListener progressListener = listener == null ? new ArchiveProgressListener() {} : listener;
+        TarCompression compression = detect(srcFile);
+        if (compression == null)
+            throw new IOException("文件：" + srcFile.getName() + " 不是tar格式");
+
+        ByteBuffer buffer = compression == TarCompression.NONE ? null : ByteBuffer.allocate(BUFFER_SIZE);
+        try (TarArchiveInputStream tarArchiveInputStream = new TarArchiveInputStream(open(srcFile, compression));
+             FileChannel srcChannel = compression == TarCompression.NONE ? FileChannel.open(srcFile.toPath(), StandardOpenOption.READ) : null) {
+            TarArchiveEntry tarArchiveEntry;
+            while ((tarArchiveEntry = tarArchiveInputStream.getNextTarEntry()) != null) {
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedIOException("解压缩文件：" + srcFile.getName() + " 被中断");
+                File entryFile = ArchivePaths.resolve(destDir, tarArchiveEntry.getName());
+                if (tarArchiveEntry.isDirectory()) {
+                    entryFile.mkdirs();
+                    continue;
+                }
+                if (!isRegularFile(tarArchiveEntry)) {
+                    log.warn("跳过tar中的非普通文件：{}", tarArchiveEntry.getName());
+                    continue;
+                }
+
+                progressListener.onEntryStart(tarArchiveEntry.getName(), tarArchiveEntry.getSize());
+                File parentFile = entryFile.getParentFile();
+                if (parentFile != null && !parentFile.exists())
+                    parentFile.mkdirs();
+                long written;
+                try (FileChannel destChannel = FileChannel.open(entryFile.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    if (srcChannel != null)
+                        written = transfer(srcChannel, tarArchiveInputStream.getBytesRead(), tarArchiveEntry.getSize(), destChannel, progressListener);
+                    else
+                        written = copy(tarArchiveInputStream, buffer, destChannel, progressListener);
+                }
+                if (written != tarArchiveEntry.getSize())
+                    throw new EOFException("tar中的文件：" + tarArchiveEntry.getName() + " 不完整");
+                entryFile.setLastModified(tarArchiveEntry.getModTime().getTime());
+                Metrics.increment(Metrics.ARCHIVE_ENTRIES, 1);
+                Metrics.increment(Metrics.ARCHIVE_BYTES, written);
+                progressListener.onEntryComplete(tarArchiveEntry.getName(), written);
+            }
+        }
+    }
+
+    /**
+     * 是否为普通文件，commons-compress的isFile()对符号链接、硬链接等不是目录的类型同样返回true
+     */
+    static boolean isRegularFile(TarArchiveEntry tarArchiveEntry){
+        return tarArchiveEntry.isFile() && !tarArchiveEntry.isSymbolicLink() && !tarArchiveEntry.isLink()
+                && !tarArchiveEntry.isCharacterDevice() && !tarArchiveEntry.isBlockDevice() && !tarArchiveEntry.isFIFO();
+    }
+
+    /**
+     * 按外层压缩格式打开解压后的tar数据流
+     */
+    static InputStream open(File srcFile, TarCompression compression) throws IOException {
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(srcFile), BUFFER_SIZE);
+        try {
+            switch (compression) {
+                case GZIP: return new GzipCompressorInputStream(inputStream, true);
+                case BZIP2: return new BZip2CompressorInputStream(inputStream, true);
+                case XZ: return new XZCompressorInputStream(inputStream, true);
+                case ZSTD: return new ZstdCompressorInputStream(inputStream);
+                default: return inputStream;
+            }
+        } catch (IOException | RuntimeException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    private static TarCompression compressionOf(byte[] header, int length){
+        if (length >= 2 && header[0] == 0x1F && header[1] == (byte) 0x8B)
+            return TarCompression.GZIP;
+        if (length >= 3 && header[0] == 'B' && header[1] == 'Z' && header[2] == 'h')
+            return TarCompression.BZIP2;
+        if (length >= 6 && Arrays.equals(header, new byte[]{(byte) 0xFD, '7', 'z', 'X', 'Z', 0}))
+            return TarCompression.XZ;
+        if (length >= 4 && header[0] == 0x28 && header[1] == (byte) 0xB5 && header[2] == 0x2F && header[3] == (byte) 0xFD)
+            return ZstdUtils.isZstdCompressionAvailable() ? TarCompression.ZSTD : null;
+        return TarCompression.NONE;
+    }
+
+    /**
+     * 未压缩的tar文件，数据在源文件中连续存放，直接在通道间传输，
+     * 传输完成后由getNextTarEntry跳过已传输的数据
+     */
+    static long transfer(FileChannel srcChannel, long dataOffset, long size, FileChannel destChannel,
+                                 ArchiveProgressListener listener) throws IOException {
+        long written = 0;
+        while (written < size) {
+            long transferred = srcChannel.transferTo(dataOffset + written, Math.min(size - written, BUFFER_SIZE * 64L), destChannel);
+            if (transferred <= 0)
+                break;
+            written += transferred;
+            listener.onBytes(transferred);
+        }
+        return written;
+    }
+
+    static long copy(InputStream inputStream, ByteBuffer buffer, FileChannel destChannel,
+                             ArchiveProgressListener listener) throws IOException {
+        long written = 0;
+        byte[] bytes = buffer.array();
+        while (true) {
+            int length = ArchiveStreams.readFully(inputStream, bytes);
+            if (length == 0)
+                break;
+            buffer.clear().limit(length);
+            while (buffer.hasRemaining())
+                destChannel.write(buffer);
+            written += length;
+            listener.onBytes(length);
+            if (length < bytes.length)
+                break;
+        }
+        return written;
+    }
+}
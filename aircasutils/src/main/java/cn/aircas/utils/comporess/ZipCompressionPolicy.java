@@ -0,0 +1,169 @@
+package cn.aircas.utils.comporess;
+
+import cn.aircas.utils.image.GeoTiffHeader;
+import cn.aircas.utils.image.GeoTiffHeaderReader;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * 压缩包内每个文件的压缩方式
+ * 依次根据扩展名、文件头和tif压缩标签判断文件是否已经压缩过，已压缩的文件直接存储；
+ * 无法判断时对文件开头的数据试压缩，压缩率不足时直接存储。
+ * 压缩的文件统一使用deflate默认级别，commons-compress 1.18的并行压缩不支持为单个文件指定级别
+ * @author vanishrain
+ */
+public class ZipCompressionPolicy {
+
+    /**
+     * 默认策略，试压缩后大小超过原大小90%时直接存储
+     */
+    public static final ZipCompressionPolicy DEFAULT = new ZipCompressionPolicy(0.9);
+
+    /**
+     * 所有文件都使用deflate压缩
+     */
+    public static final ZipCompressionPolicy ALWAYS_DEFLATE = new ZipCompressionPolicy(Double.MAX_VALUE) {
+        @Override
+        public Decision decide(File file){
+            return Decision.DEFLATE;
+        }
+    };
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    //小于该大小的文件直接压缩，判断的开销大于收益
+    private static final long MIN_SAMPLE_FILE_SIZE = 4 * 1024;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "jp2", "j2k", "jpx", "ecw", "sid",
+            "zip", "rar", "7z", "gz", "tgz", "bz2", "xz", "zst", "lz4",
+            "mp4", "mkv", "avi", "mov", "mp3"));
+
+    private static final Set<String> TEXT_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "txt", "xml", "json", "csv", "html", "htm", "log", "rpb", "rpc", "tfw", "prj", "aux", "hdr", "kml"));
+
+    private static final byte[][] COMPRESSED_MAGICS = {
+            {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF},                         //jpeg
+            {(byte) 0x89, 'P', 'N', 'G'},                                    //png
+            {'G', 'I', 'F', '8'},                                            //gif
+            {'P', 'K', 3, 4},                                                //zip
+            {'R', 'a', 'r', '!'},                                            //rar
+            {0x1F, (byte) 0x8B},                                             //gzip
+            {'B', 'Z', 'h'},                                                 //bzip2
+            {(byte) 0xFD, '7', 'z', 'X', 'Z', 0},                            //xz
+            {0x28, (byte) 0xB5, 0x2F, (byte) 0xFD},                          //zstd
+            {'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C},                //7z
+            {0, 0, 0, 0x0C, 'j', 'P', ' ', ' '},                             //jpeg2000
+            {(byte) 0xFF, 0x4F, (byte) 0xFF, 0x51}};                         //jpeg2000码流
+
+    private final double storeRatio;
+
+    /**
+     * @param storeRatio 试压缩后大小与原大小之比超过该值时直接存储
+     */
+    public ZipCompressionPolicy(double storeRatio){
+        this.storeRatio = storeRatio;
+    }
+
+    /**
+     * 压缩方式
+     */
+    public static final class Decision {
+        public static final Decision STORE = new Decision(ZipEntry.STORED);
+        public static final Decision DEFLATE = new Decision(ZipEntry.DEFLATED);
+
+        private final int method;
+
+        private Decision(int method){
+            this.method = method;
+        }
+
+        /**
+         * ZipEntry.STORED或ZipEntry.DEFLATED
+         * @return
+         */
+        public int getMethod(){
+            return method;
+        }
+    }
+
+    /**
+     * 判断文件的压缩方式
+     * @param file
+     * @return
+     */
+    public Decision decide(File file){
+        String extension = FilenameUtils.getExtension(file.getName()).toLowerCase();
+        if (COMPRESSED_EXTENSIONS.contains(extension))
+            return Decision.STORE;
+        if (TEXT_EXTENSIONS.contains(extension) || file.length() < MIN_SAMPLE_FILE_SIZE)
+            return Decision.DEFLATE;
+
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int length;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            length = ArchiveStreams.readFully(inputStream, sample);
+        } catch (IOException e) {
+            return Decision.DEFLATE;
+        }
+
+        for (byte[] magic : COMPRESSED_MAGICS) {
+            if (startsWith(sample, length, magic))
+                return Decision.STORE;
+        }
+        if (startsWith(sample, length, new byte[]{'I', 'I'}) || startsWith(sample, length, new byte[]{'M', 'M'})) {
+            Decision decision = decideTiff(file);
+            if (decision != null)
+                return decision;
+        }
+        return sampleCompressibility(sample, length);
+    }
+
+    /**
+     * tif按压缩标签判断，未压缩的影像使用deflate压缩
+     */
+    private static Decision decideTiff(File file){
+        try {
+            GeoTiffHeader geoTiffHeader = GeoTiffHeaderReader.read(file.getAbsolutePath());
+            if (geoTiffHeader == null)
+                return null;
+            return geoTiffHeader.getCompression() == GeoTiffHeader.COMPRESSION_NONE ? Decision.DEFLATE : Decision.STORE;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private Decision sampleCompressibility(byte[] sample, int length){
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] output = new byte[SAMPLE_SIZE];
+            long compressed = 0;
+            while (!deflater.finished())
+                compressed += deflater.deflate(output);
+            return compressed > length * storeRatio ? Decision.STORE : Decision.DEFLATE;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int length, byte[] magic){
+        if (length < magic.length)
+            return false;
+        for (int index = 0; index < magic.length; index++) {
+            if (data[index] != magic[index])
+                return false;
+        }
+        return true;
+    }
+}
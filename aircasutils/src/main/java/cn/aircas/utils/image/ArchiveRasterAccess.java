@@ -0,0 +1,167 @@
+package cn.aircas.utils.image;
+
+import cn.aircas.utils.comporess.TarExtractor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.gdal.gdal.gdal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * 通过gdal虚拟文件系统直接读取压缩包内的影像，不需要先解压
+ * 压缩包内的影像以/vsizip/、/vsitar/、/vsigzip/路径表示，可直接传给ParseImageInfo、GeoUtils、SliceGenerateUtil等，
+ * 生成元数据、缩略图和切片；压缩包内的影像不能写入，不支持创建概视图
+ * @author vanishrain
+ */
+@Slf4j
+public class ArchiveRasterAccess {
+
+    public static final String VSI_ZIP = "/vsizip/";
+
+    public static final String VSI_TAR = "/vsitar/";
+
+    public static final String VSI_GZIP = "/vsigzip/";
+
+    private static final String[] VSI_PREFIXES = {VSI_ZIP, VSI_TAR, VSI_GZIP};
+
+    private static final String[] RASTER_EXTENSIONS = {"tif","tiff","img","jp2","png","jpg","jpeg"};
+
+    static {
+        gdal.AllRegister();
+        gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
+    }
+
+    /**
+     * 列出压缩包内的影像
+     * @param archivePath 压缩包路径
+     * @return 影像的虚拟文件系统路径
+     */
+    public static List<String> listRasters(String archivePath){
+        return listRasters(archivePath, RASTER_EXTENSIONS);
+    }
+
+    /**
+     * 列出压缩包内指定格式的文件
+     * @param archivePath 压缩包路径
+     * @param extensions 扩展名，不区分大小写
+     * @return 文件的虚拟文件系统路径
+     */
+    public static List<String> listRasters(String archivePath, String[] extensions){
+        List<String> rasterPaths = new ArrayList<>();
+        String archiveRoot = archiveRoot(archivePath);
+        if (archiveRoot == null)
+            return rasterPaths;
+        //gzip压缩的单个文件，压缩包本身就是一个文件
+        if (archiveRoot.startsWith(VSI_GZIP)) {
+            if (isExtension(FilenameUtils.removeExtension(archivePath), extensions))
+                rasterPaths.add(archiveRoot);
+            return rasterPaths;
+        }
+
+        Vector<?> members = gdal.ReadDirRecursive(archiveRoot);
+        if (members == null)
+            return rasterPaths;
+        for (Object member : members) {
+            String memberPath = member.toString();
+            if (!memberPath.endsWith("/") && isExtension(memberPath, extensions))
+                rasterPaths.add(archiveRoot + "/" + memberPath);
+        }
+        return rasterPaths;
+    }
+
+    /**
+     * 压缩包内文件的虚拟文件系统路径
+     * @param archivePath 压缩包路径
+     * @param memberPath 压缩包内的文件路径，gzip压缩的单个文件传null
+     * @return 压缩格式不支持时返回null
+     */
+    public static String vsiPath(String archivePath, String memberPath){
+        String archiveRoot = archiveRoot(archivePath);
+        if (archiveRoot == null || archiveRoot.startsWith(VSI_GZIP) || memberPath == null)
+            return archiveRoot;
+        return archiveRoot + "/" + memberPath.replace('\\', '/');
+    }
+
+    /**
+     * 是否为gdal虚拟文件系统路径
+     * @param path
+     * @return
+     */
+    public static boolean isVsiPath(String path){
+        return path != null && path.startsWith("/vsi");
+    }
+
+    /**
+     * 获取路径对应的磁盘文件，压缩包内的文件返回压缩包，用于判断文件大小和修改时间
+     * @param path 普通路径或/vsizip/、/vsitar/、/vsigzip/路径
+     * @return 无法确定磁盘文件时（如/vsimem/）返回null
+     */
+    public static File physicalFile(String path){
+        if (!isVsiPath(path))
+            return new File(path);
+        for (String prefix : VSI_PREFIXES) {
+            if (!path.startsWith(prefix))
+                continue;
+            String archivePath = path.substring(prefix.length());
+            //{}包围的压缩包路径
+            if (archivePath.startsWith("{")) {
+                int end = archivePath.indexOf('}');
+                return end < 0 ? null : new File(archivePath.substring(1, end));
+            }
+            //从最短的前缀开始找到第一个是文件的路径
+            int separator = archivePath.indexOf('/', 1);
+            while (separator > 0) {
+                File archiveFile = new File(archivePath.substring(0, separator));
+                if (archiveFile.isFile())
+                    return archiveFile;
+                separator = archivePath.indexOf('/', separator + 1);
+            }
+            File archiveFile = new File(archivePath);
+            return archiveFile.isFile() ? archiveFile : null;
+        }
+        return null;
+    }
+
+    /**
+     * 根据压缩格式确定虚拟文件系统的根路径
+     */
+    private static String archiveRoot(String archivePath){
+        File archiveFile = new File(archivePath);
+        if (!archiveFile.isFile())
+            return null;
+        String absolutePath = archiveFile.getAbsolutePath().replace('\\', '/');
+        byte[] header = new byte[4];
+        try (InputStream inputStream = new FileInputStream(archiveFile)) {
+            if (inputStream.read(header) < header.length)
+                return null;
+        } catch (IOException e) {
+            return null;
+        }
+        if (header[0] == 'P' && header[1] == 'K' && header[2] == 3 && header[3] == 4)
+            return VSI_ZIP + absolutePath;
+
+        //gdal的/vsitar/支持未压缩和gzip压缩的tar
+        TarExtractor.TarCompression compression = TarExtractor.detect(archiveFile);
+        if (compression == TarExtractor.TarCompression.NONE || compression == TarExtractor.TarCompression.GZIP)
+            return VSI_TAR + absolutePath;
+        if (compression == null && header[0] == 0x1F && header[1] == (byte) 0x8B)
+            return VSI_GZIP + absolutePath;
+        log.warn("gdal不支持直接读取压缩包：{}", archivePath);
+        return null;
+    }
+
+    private static boolean isExtension(String fileName, String[] extensions){
+        String extension = FilenameUtils.getExtension(fileName);
+        for (String candidate : extensions) {
+            if (candidate.equalsIgnoreCase(extension))
+                return true;
+        }
+        return false;
+    }
+}
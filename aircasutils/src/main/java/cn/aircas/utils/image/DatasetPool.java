@@ -0,0 +1,260 @@
+package cn.aircas.utils.image;
+
+import cn.aircas.utils.image.geo.GeoReference;
+import cn.aircas.utils.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconst;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * gdal只读数据集句柄池
+ * 以影像路径及文件修改时间作为key，同一影像可以缓存多个句柄，每个句柄同一时间只借给一个线程，
+ * gdal数据集句柄不是线程安全的，并发借用同一影像时会打开新的句柄，归还后放回空闲列表供后续借用；
+ * 空闲句柄按LRU淘汰，空闲句柄数量和估算的本地内存超过上限时关闭最久未使用的空闲句柄。
+ * 地理参考信息按影像缓存，所有句柄共享
+ * @author vanishrain
+ */
+@Slf4j
+public class DatasetPool {
+
+    //单个句柄除分块缓存外的固定开销估算
+    private static final long HANDLE_OVERHEAD = 64 * 1024L;
+
+    private static int maxEntries = 64;
+
+    private static long memoryBudget = 256 * 1024 * 1024L;
+
+    private static long usedMemory = 0;
+
+    //所有影像的空闲句柄总数
+    private static int idleHandles = 0;
+
+    private static final Map<String, PoolEntry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+
+    static {
+        gdal.AllRegister();
+        gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
+    }
+
+    /**
+     * 设置句柄池上限
+     * @param entries 最多缓存的空闲句柄数量
+     * @param budget 空闲句柄占用本地内存的估算上限，字节
+     */
+    public static synchronized void setLimits(int entries, long budget){
+        maxEntries = entries;
+        memoryBudget = budget;
+        evict();
+    }
+
+    /**
+     * 借出影像的数据集句柄，使用完毕后必须调用close归还，归还前句柄只由借用的线程使用
+     * @param imagePath 影像路径，可以是压缩包内影像的/vsizip/、/vsitar/路径
+     * @return 无法打开影像时返回null
+     */
+    public static PooledDataset borrow(String imagePath){
+        //压缩包内的影像按压缩包判断是否被修改
+        File imageFile = ArchiveRasterAccess.physicalFile(imagePath);
+        long lastModified = imageFile == null ? 0 : imageFile.lastModified();
+        long length = imageFile == null ? 0 : imageFile.length();
+
+        synchronized (DatasetPool.class) {
+            PoolEntry entry = ENTRIES.get(imagePath);
+            if (entry != null && (entry.lastModified != lastModified || entry.length != length)) {
+                //文件已被修改，借出的旧句柄在归还后关闭
+                removeEntry(entry);
+                entry = null;
+            }
+            if (entry != null && !entry.idle.isEmpty()) {
+                Dataset dataset = entry.idle.pop();
+                idleHandles--;
+                usedMemory -= entry.estimatedMemory;
+                entry.borrowed++;
+                Metrics.increment(Metrics.DATASET_POOL_HIT, 1);
+                return new PooledDataset(entry, dataset);
+            }
+        }
+
+        Dataset dataset = open(imagePath, gdalconst.GA_ReadOnly);
+        if (dataset == null)
+            return null;
+
+        synchronized (DatasetPool.class) {
+            PoolEntry entry = ENTRIES.get(imagePath);
+            if (entry == null || entry.lastModified != lastModified || entry.length != length) {
+                if (entry != null)
+                    removeEntry(entry);
+                entry = new PoolEntry(imagePath, lastModified, length, estimateMemory(dataset));
+                ENTRIES.put(imagePath, entry);
+            }
+            entry.borrowed++;
+            return new PooledDataset(entry, dataset);
+        }
+    }
+
+    /**
+     * 不经过句柄池以只读方式打开影像，记录打开耗时，使用完毕后由调用方delete
+     * @param imagePath 影像路径
+     * @return 无法打开影像时返回null
+     */
+    public static Dataset open(String imagePath){
+        return open(imagePath, gdalconst.GA_ReadOnly);
+    }
+
+    /**
+     * 不经过句柄池打开影像，记录打开耗时，使用完毕后由调用方delete
+     * @param imagePath 影像路径
+     * @param access gdalconst.GA_ReadOnly或gdalconst.GA_Update
+     * @return 无法打开影像时返回null
+     */
+    public static Dataset open(String imagePath, int access){
+        long begin = System.nanoTime();
+        Dataset dataset = gdal.Open(imagePath, access);
+        Metrics.recordSince(Metrics.DATASET_OPEN, begin);
+        return dataset;
+    }
+
+    /**
+     * 关闭所有空闲句柄，正在借用的句柄在归还后关闭
+     */
+    public static synchronized void clear(){
+        for (PoolEntry entry : ENTRIES.values().toArray(new PoolEntry[0]))
+            removeEntry(entry);
+    }
+
+    /**
+     * 当前缓存的空闲句柄数量
+     * @return
+     */
+    public static synchronized int size(){
+        return idleHandles;
+    }
+
+    private static synchronized void release(PoolEntry entry, Dataset dataset){
+        entry.borrowed--;
+        if (entry.removed) {
+            dataset.delete();
+            return;
+        }
+        entry.idle.push(dataset);
+        idleHandles++;
+        usedMemory += entry.estimatedMemory;
+        //更新LRU顺序
+        ENTRIES.get(entry.imagePath);
+        evict();
+    }
+
+    private static void removeEntry(PoolEntry entry){
+        if (entry.removed)
+            return;
+        entry.removed = true;
+        ENTRIES.remove(entry.imagePath, entry);
+        closeIdle(entry, entry.idle.size());
+    }
+
+    private static void closeIdle(PoolEntry entry, int count){
+        for (int index = 0; index < count && !entry.idle.isEmpty(); index++) {
+            entry.idle.pollLast().delete();
+            idleHandles--;
+            usedMemory -= entry.estimatedMemory;
+        }
+    }
+
+    private static void evict(){
+        Iterator<PoolEntry> iterator = ENTRIES.values().iterator();
+        while ((idleHandles > maxEntries || usedMemory > memoryBudget) && iterator.hasNext()) {
+            PoolEntry entry = iterator.next();
+            while ((idleHandles > maxEntries || usedMemory > memoryBudget) && !entry.idle.isEmpty())
+                closeIdle(entry, 1);
+            if (entry.idle.isEmpty() && entry.borrowed == 0) {
+                iterator.remove();
+                entry.removed = true;
+            }
+        }
+    }
+
+    /**
+     * 按每个波段缓存一个数据块估算句柄占用的本地内存
+     */
+    private static long estimateMemory(Dataset dataset){
+        long memory = HANDLE_OVERHEAD;
+        int[] blockXSize = new int[1];
+        int[] blockYSize = new int[1];
+        for (int band = 1; band <= dataset.getRasterCount(); band++) {
+            Band rasterBand = dataset.GetRasterBand(band);
+            rasterBand.GetBlockSize(blockXSize, blockYSize);
+            memory += (long) blockXSize[0] * blockYSize[0] * Math.max(1, gdal.GetDataTypeSize(rasterBand.getDataType()) / 8);
+        }
+        return memory;
+    }
+
+    private static class PoolEntry {
+        private final String imagePath;
+        private final long lastModified;
+        private final long length;
+        //单个句柄的估算内存
+        private final long estimatedMemory;
+        private final Deque<Dataset> idle = new ArrayDeque<>();
+        private int borrowed;
+        private boolean removed;
+        private GeoReference geoReference;
+
+        private PoolEntry(String imagePath, long lastModified, long length, long estimatedMemory){
+            this.imagePath = imagePath;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.estimatedMemory = estimatedMemory;
+        }
+    }
+
+    /**
+     * 借出的数据集句柄，close时归还句柄池，不会关闭数据集
+     */
+    public static class PooledDataset implements AutoCloseable {
+        private final PoolEntry entry;
+        private final Dataset dataset;
+        private boolean closed;
+
+        private PooledDataset(PoolEntry entry, Dataset dataset){
+            this.entry = entry;
+            this.dataset = dataset;
+        }
+
+        /**
+         * 借用线程独占的数据集句柄，归还后不能再使用
+         * @return
+         */
+        public Dataset getDataset(){
+            return dataset;
+        }
+
+        /**
+         * 影像的地理参考信息，同一影像只读取一次
+         * @return
+         */
+        public GeoReference getGeoReference(){
+            synchronized (entry) {
+                if (entry.geoReference == null)
+                    entry.geoReference = GeoReference.of(dataset);
+                return entry.geoReference;
+            }
+        }
+
+        @Override
+        public void close(){
+            if (closed)
+                return;
+            closed = true;
+            release(entry, dataset);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package cn.aircas.utils.image;
+
+import lombok.Data;
+
+/**
+ * GeoTIFF文件第一个IFD中的基本信息和地理标签
+ * @author vanishrain
+ */
+@Data
+public class GeoTiffHeader {
+    //TIFF压缩方式，1为不压缩
+    public static final int COMPRESSION_NONE = 1;
+
+    private boolean bigTiff;
+    private int width;
+    private int height;
+    private int bands;
+    private int bitsPerSample;
+    //1无符号整数 2有符号整数 3浮点数
+    private int sampleFormat = 1;
+    private int compression = COMPRESSION_NONE;
+    //由ModelTiepoint、ModelPixelScale或ModelTransformation计算的六参数地理变换，没有地理标签时为null
+    private double[] geoTransform;
+    //控制点数量，多于1个时为控制点影像，地理变换需要gdal计算
+    private int tiepointCount;
+    private boolean hasGeoKeys;
+    //GeoKey 1024 1投影坐标 2地理坐标
+    private int modelType;
+    //GeoKey 3072或2048中的EPSG编码，用户自定义坐标系时为null
+    private Integer epsgCode;
+
+    /**
+     * 与gdal一致的数据类型名称
+     * @return 无法对应到gdal数据类型时返回null
+     */
+    public String getDataTypeName(){
+        switch (sampleFormat) {
+            case 1:
+                if (bitsPerSample == 8) return "Byte";
+                if (bitsPerSample == 16) return "UInt16";
+                if (bitsPerSample == 32) return "UInt32";
+                return null;
+            case 2:
+                //gdal 3.0中有符号8位以Byte表示
+                if (bitsPerSample == 8) return "Byte";
+                if (bitsPerSample == 16) return "Int16";
+                if (bitsPerSample == 32) return "Int32";
+                return null;
+            case 3:
+                //半精度浮点由gdal提升为Float32
+                if (bitsPerSample == 16 || bitsPerSample == 32) return "Float32";
+                if (bitsPerSample == 64) return "Float64";
+                return null;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package cn.aircas.utils.image;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 纯java的TIFF/BigTIFF文件头解析
+ * 只读取文件头和第一个IFD中的少量标签，不经过gdal，用于批量编目时快速获取影像大小、数据类型和地理标签
+ * @author vanishrain
+ */
+public class GeoTiffHeaderReader {
+
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_SAMPLE_FORMAT = 339;
+    private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+    private static final int TAG_MODEL_TIEPOINT = 33922;
+    private static final int TAG_MODEL_TRANSFORMATION = 34264;
+    private static final int TAG_GEO_KEY_DIRECTORY = 34735;
+
+    private static final int KEY_GT_MODEL_TYPE = 1024;
+    private static final int KEY_GT_RASTER_TYPE = 1025;
+    private static final int KEY_GEOGRAPHIC_TYPE = 2048;
+    private static final int KEY_PROJECTED_CS_TYPE = 3072;
+
+    private static final int RASTER_PIXEL_IS_POINT = 2;
+    private static final int USER_DEFINED = 32767;
+
+    //单个标签最多读取的值数量，超过视为文件损坏
+    private static final long MAX_VALUE_COUNT = 1 << 20;
+
+    private final FileChannel channel;
+    private ByteOrder byteOrder;
+    private boolean bigTiff;
+
+    private GeoTiffHeaderReader(FileChannel channel){
+        this.channel = channel;
+    }
+
+    /**
+     * 读取TIFF文件头
+     * @param imagePath 影像路径
+     * @return 不是TIFF文件时返回null
+     * @throws IOException 文件无法读取或IFD损坏
+     */
+    public static GeoTiffHeader read(String imagePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(imagePath), StandardOpenOption.READ)) {
+            return new GeoTiffHeaderReader(channel).readHeader();
+        }
+    }
+
+    private GeoTiffHeader readHeader() throws IOException {
+        if (channel.size() < 8)
+            return null;
+        ByteBuffer header = read(0, 16 <= channel.size() ? 16 : 8);
+        byte first = header.get(0);
+        byte second = header.get(1);
+        if (first == 'I' && second == 'I')
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        else if (first == 'M' && second == 'M')
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        else
+            return null;
+        header.order(byteOrder);
+
+        int version = header.getShort(2) & 0xFFFF;
+        long ifdOffset;
+        if (version == 42) {
+            ifdOffset = header.getInt(4) & 0xFFFFFFFFL;
+        } else if (version == 43 && header.limit() >= 16) {
+            bigTiff = true;
+            ifdOffset = header.getLong(8);
+        } else {
+            return null;
+        }
+
+        GeoTiffHeader geoTiffHeader = new GeoTiffHeader();
+        geoTiffHeader.setBigTiff(bigTiff);
+        geoTiffHeader.setBands(1);
+        readIfd(ifdOffset, geoTiffHeader);
+        return geoTiffHeader;
+    }
+
+    private void readIfd(long ifdOffset, GeoTiffHeader geoTiffHeader) throws IOException {
+        int countSize = bigTiff ? 8 : 2;
+        int entrySize = bigTiff ? 20 : 12;
+        ByteBuffer countBuffer = read(ifdOffset, countSize);
+        long entryCount = bigTiff ? countBuffer.getLong(0) : countBuffer.getShort(0) & 0xFFFF;
+        if (entryCount <= 0 || entryCount > 4096)
+            throw new IOException("TIFF IFD损坏，标签数量：" + entryCount);
+        ByteBuffer entries = read(ifdOffset + countSize, (int) entryCount * entrySize);
+
+        double[] pixelScale = null;
+        double[] tiepoints = null;
+        double[] transformation = null;
+        long[] geoKeys = null;
+        for (int index = 0; index < entryCount; index++) {
+            int position = index * entrySize;
+            int tag = entries.getShort(position) & 0xFFFF;
+            switch (tag) {
+                case TAG_IMAGE_WIDTH:
+                    geoTiffHeader.setWidth((int) readLongs(entries, position)[0]);
+                    break;
+                case TAG_IMAGE_LENGTH:
+                    geoTiffHeader.setHeight((int) readLongs(entries, position)[0]);
+                    break;
+                case TAG_BITS_PER_SAMPLE:
+                    geoTiffHeader.setBitsPerSample((int) readLongs(entries, position)[0]);
+                    break;
+                case TAG_COMPRESSION:
+                    geoTiffHeader.setCompression((int) readLongs(entries, position)[0]);
+                    break;
+                case TAG_SAMPLES_PER_PIXEL:
+                    geoTiffHeader.setBands((int) readLongs(entries, position)[0]);
+                    break;
+                case TAG_SAMPLE_FORMAT:
+                    geoTiffHeader.setSampleFormat((int) readLongs(entries, position)[0]);
+                    break;
+                case TAG_MODEL_PIXEL_SCALE:
+                    pixelScale = readDoubles(entries, position);
+                    break;
+                case TAG_MODEL_TIEPOINT:
+                    tiepoints = readDoubles(entries, position);
+                    break;
+                case TAG_MODEL_TRANSFORMATION:
+                    transformation = readDoubles(entries, position);
+                    break;
+                case TAG_GEO_KEY_DIRECTORY:
+                    geoKeys = readLongs(entries, position);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        boolean pixelIsPoint = false;
+        if (geoKeys != null && geoKeys.length >= 4) {
+            geoTiffHeader.setHasGeoKeys(true);
+            int keyCount = (int) Math.min(geoKeys[3], (geoKeys.length - 4) / 4);
+            Integer geographicType = null;
+            Integer projectedType = null;
+            for (int key = 0; key < keyCount; key++) {
+                int keyIndex = 4 + key * 4;
+                //TIFFTagLocation为0时值直接存放在ValueOffset中，其它位置存放的是双精度或字符串参数，这里不需要
+                if (geoKeys[keyIndex + 1] != 0)
+                    continue;
+                int value = (int) geoKeys[keyIndex + 3];
+                switch ((int) geoKeys[keyIndex]) {
+                    case KEY_GT_MODEL_TYPE:
+                        geoTiffHeader.setModelType(value);
+                        break;
+                    case KEY_GT_RASTER_TYPE:
+                        pixelIsPoint = value == RASTER_PIXEL_IS_POINT;
+                        break;
+                    case KEY_GEOGRAPHIC_TYPE:
+                        geographicType = value;
+                        break;
+                    case KEY_PROJECTED_CS_TYPE:
+                        projectedType = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            Integer epsgCode = geoTiffHeader.getModelType() == 2 ? geographicType : projectedType;
+            if (epsgCode == null)
+                epsgCode = projectedType != null ? projectedType : geographicType;
+            if (epsgCode != null && epsgCode > 0 && epsgCode != USER_DEFINED)
+                geoTiffHeader.setEpsgCode(epsgCode);
+        }
+
+        double[] geoTransform = null;
+        if (tiepoints != null)
+            geoTiffHeader.setTiepointCount(tiepoints.length / 6);
+        if (transformation != null && transformation.length >= 16) {
+            geoTransform = new double[]{transformation[3], transformation[0], transformation[1],
+                    transformation[7], transformation[4], transformation[5]};
+        } else if (tiepoints != null && tiepoints.length >= 6 && pixelScale != null && pixelScale.length >= 2) {
+            geoTransform = new double[]{tiepoints[3] - tiepoints[0] * pixelScale[0], pixelScale[0], 0,
+                    tiepoints[4] + tiepoints[1] * pixelScale[1], 0, -pixelScale[1]};
+        }
+        //与gdal一致，PixelIsPoint时将原点移到像素左上角
+        if (geoTransform != null && pixelIsPoint) {
+            geoTransform[0] -= (geoTransform[1] + geoTransform[2]) * 0.5;
+            geoTransform[3] -= (geoTransform[4] + geoTransform[5]) * 0.5;
+        }
+        geoTiffHeader.setGeoTransform(geoTransform);
+    }
+
+    /**
+     * 读取整数类型标签的值
+     */
+    private long[] readLongs(ByteBuffer entries, int position) throws IOException {
+        int type = entries.getShort(position + 2) & 0xFFFF;
+        int typeSize = typeSize(type);
+        ByteBuffer values = values(entries, position, typeSize);
+        long[] result = new long[values.remaining() / typeSize];
+        for (int index = 0; index < result.length; index++) {
+            int offset = index * typeSize;
+            switch (type) {
+                case 1: case 7: result[index] = values.get(offset) & 0xFF; break;
+                case 6: result[index] = values.get(offset); break;
+                case 3: result[index] = values.getShort(offset) & 0xFFFF; break;
+                case 8: result[index] = values.getShort(offset); break;
+                case 4: case 13: result[index] = values.getInt(offset) & 0xFFFFFFFFL; break;
+                case 9: result[index] = values.getInt(offset); break;
+                case 16: case 17: case 18: result[index] = values.getLong(offset); break;
+                default: throw new IOException("TIFF标签类型不是整数：" + type);
+            }
+        }
+        if (result.length == 0)
+            throw new IOException("TIFF标签没有值");
+        return result;
+    }
+
+    /**
+     * 读取浮点类型标签的值
+     */
+    private double[] readDoubles(ByteBuffer entries, int position) throws IOException {
+        int type = entries.getShort(position + 2) & 0xFFFF;
+        int typeSize = typeSize(type);
+        ByteBuffer values = values(entries, position, typeSize);
+        double[] result = new double[values.remaining() / typeSize];
+        for (int index = 0; index < result.length; index++) {
+            if (type == 12)
+                result[index] = values.getDouble(index * 8);
+            else if (type == 11)
+                result[index] = values.getFloat(index * 4);
+            else
+                throw new IOException("TIFF标签类型不是浮点数：" + type);
+        }
+        return result;
+    }
+
+    /**
+     * 标签的值不超过值域大小时直接存放在IFD项中，否则存放在偏移位置
+     */
+    private ByteBuffer values(ByteBuffer entries, int position, int typeSize) throws IOException {
+        long count = bigTiff ? entries.getLong(position + 4) : entries.getInt(position + 4) & 0xFFFFFFFFL;
+        if (count < 0 || count > MAX_VALUE_COUNT)
+            throw new IOException("TIFF标签值数量异常：" + count);
+        int length = (int) count * typeSize;
+        int inlineSize = bigTiff ? 8 : 4;
+        int valuePosition = position + (bigTiff ? 12 : 8);
+        if (length <= inlineSize) {
+            ByteBuffer inline = entries.duplicate().order(byteOrder);
+            inline.position(valuePosition).limit(valuePosition + length);
+            return inline.slice().order(byteOrder);
+        }
+        long offset = bigTiff ? entries.getLong(valuePosition) : entries.getInt(valuePosition) & 0xFFFFFFFFL;
+        return read(offset, length);
+    }
+
+    private static int typeSize(int type) throws IOException {
+        switch (type) {
+            case 1: case 2: case 6: case 7: return 1;
+            case 3: case 8: return 2;
+            case 4: case 9: case 11: case 13: return 4;
+            case 5: case 10: case 12: case 16: case 17: case 18: return 8;
+            default: throw new IOException("未知的TIFF标签类型：" + type);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        if (position < 0 || position + length > channel.size())
+            throw new EOFException("TIFF偏移超出文件范围：" + position);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+        buffer.flip();
+        return buffer.order(byteOrder == null ? ByteOrder.BIG_ENDIAN : byteOrder);
+    }
+}
@@ -0,0 +1,385 @@
+package cn.aircas.utils.image;
+
+import cn.aircas.utils.image.emun.CoordinateSystemType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * 影像信息持久化缓存
+ * 以影像路径、文件大小和修改时间作为key，内存中按LRU缓存最近使用的影像信息，
+ * 所有解析结果追加写入二进制日志文件，重启后只加载索引，未修改的影像不再经过gdal解析。
+ * 同一路径的新记录覆盖旧记录，失效记录过多时重写日志文件
+ * @author vanishrain
+ */
+@Slf4j
+public class ImageInfoCache implements Closeable {
+
+    private static final int MAGIC = 0x41494943;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 8;
+
+    private static final byte RECORD_PROJECTION = 1;
+
+    private static final byte RECORD_IMAGE_INFO = 2;
+
+    //失效记录超过该数量且多于有效记录时，打开缓存时重写日志文件
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final File storeFile;
+
+    private final Map<String, byte[]> memoryCache;
+
+    //影像路径对应的最新记录
+    private final Map<String, RecordIndex> recordIndexes = new HashMap<>();
+
+    //坐标系wkt较长且大量影像相同，只保存一次，记录中引用其编号
+    private final List<String> projections = new ArrayList<>();
+
+    private final Map<String, Integer> projectionIds = new HashMap<>();
+
+    private RandomAccessFile storeAccess;
+
+    private int infoRecordCount;
+
+    /**
+     * @param storeFile 日志文件，不存在时创建
+     * @throws IOException 日志文件无法读写
+     */
+    public ImageInfoCache(File storeFile) throws IOException {
+        this(storeFile, 1024);
+    }
+
+    /**
+     * @param storeFile 日志文件，不存在时创建
+     * @param maxMemoryEntries 内存中缓存的影像数量
+     * @throws IOException 日志文件无法读写
+     */
+    public ImageInfoCache(File storeFile, int maxMemoryEntries) throws IOException {
+        this.storeFile = storeFile;
+        this.memoryCache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxMemoryEntries;
+            }
+        };
+        open();
+        if (infoRecordCount - recordIndexes.size() > Math.max(COMPACT_THRESHOLD, recordIndexes.size()))
+            compact();
+    }
+
+    /**
+     * 获取影像信息，缓存未命中或影像已被修改时调用ParseImageInfo.parseInfoFast解析并写入缓存
+     * @param imagePath 影像路径
+     * @return 与ParseImageInfo.parseInfo一致，无法打开影像时返回空的影像信息
+     */
+    public ImageInfo get(String imagePath){
+        ImageInfo imageInfo = getIfPresent(imagePath);
+        if (imageInfo != null)
+            return imageInfo;
+
+        File imageFile = ArchiveRasterAccess.physicalFile(imagePath);
+        if (imageFile == null)
+            return ParseImageInfo.parseInfoFast(imagePath);
+        long length = imageFile.length();
+        long lastModified = imageFile.lastModified();
+        imageInfo = ParseImageInfo.parseInfoFast(imagePath);
+        //无法打开的影像不缓存，文件可能尚未写完
+        if (imageInfo.getWidth() > 0 && imageFile.isFile())
+            put(cachePath(imagePath, imageFile), length, lastModified, imageInfo);
+        return imageInfo;
+    }
+
+    /**
+     * 只从缓存中获取影像信息
+     * @param imagePath 影像路径
+     * @return 未命中或影像已被修改时返回null
+     */
+    public ImageInfo getIfPresent(String imagePath){
+        File imageFile = ArchiveRasterAccess.physicalFile(imagePath);
+        if (imageFile == null || !imageFile.isFile())
+            return null;
+        return getIfPresent(cachePath(imagePath, imageFile), imageFile.length(), imageFile.lastModified());
+    }
+
+    /**
+     * 按缓存key查找影像信息
+     * @param path 影像的绝对路径或虚拟文件系统路径
+     * @param length 文件大小
+     * @param lastModified 修改时间
+     * @return 未命中或大小、修改时间不一致时返回null
+     */
+    synchronized ImageInfo getIfPresent(String path, long length, long lastModified){
+        RecordIndex recordIndex = recordIndexes.get(path);
+        if (recordIndex == null || recordIndex.length != length || recordIndex.lastModified != lastModified)
+            return null;
+        byte[] payload = memoryCache.get(path);
+        try {
+            if (payload == null) {
+                payload = readPayload(recordIndex.offset);
+                memoryCache.put(path, payload);
+            }
+            return decode(payload);
+        } catch (IOException e) {
+            log.warn("读取影像信息缓存：{} 失败", path);
+            return null;
+        }
+    }
+
+    /**
+     * 缓存的影像数量
+     * @return
+     */
+    public synchronized int size(){
+        return recordIndexes.size();
+    }
+
+    /**
+     * 重写日志文件，只保留每个影像的最新记录
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        File tempFile = new File(storeFile.getAbsolutePath() + ".tmp");
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            for (int id = 0; id < projections.size(); id++)
+                outputStream.write(projectionRecord(id, projections.get(id)));
+            for (RecordIndex recordIndex : recordIndexes.values()) {
+                byte[] payload = readPayload(recordIndex.offset);
+                outputStream.writeByte(RECORD_IMAGE_INFO);
+                outputStream.writeInt(payload.length);
+                outputStream.write(payload);
+            }
+        }
+        storeAccess.close();
+        Files.move(tempFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordIndexes.clear();
+        projections.clear();
+        projectionIds.clear();
+        memoryCache.clear();
+        open();
+        log.info("影像信息缓存：{} 重写完成，共 {} 个影像", storeFile.getAbsolutePath(), recordIndexes.size());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        storeAccess.close();
+    }
+
+    /**
+     * 压缩包内的影像使用虚拟文件系统路径作为key，大小和修改时间取自压缩包
+     */
+    private static String cachePath(String imagePath, File imageFile){
+        return ArchiveRasterAccess.isVsiPath(imagePath) ? imagePath : imageFile.getAbsolutePath();
+    }
+
+    /**
+     * 追加写入影像信息记录
+     * @param path 影像的绝对路径或虚拟文件系统路径
+     * @param length 文件大小
+     * @param lastModified 修改时间
+     * @param imageInfo 影像信息
+     */
+    synchronized void put(String path, long length, long lastModified, ImageInfo imageInfo){
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream(512);
+            String projection = imageInfo.getProjection();
+            int projectionId = -1;
+            if (projection != null) {
+                Integer id = projectionIds.get(projection);
+                if (id == null) {
+                    id = projections.size();
+                    records.write(projectionRecord(id, projection));
+                }
+                projectionId = id;
+            }
+
+            byte[] payload = encode(path, length, lastModified, imageInfo, projectionId);
+            long offset = storeAccess.length() + records.size();
+            DataOutputStream outputStream = new DataOutputStream(records);
+            outputStream.writeByte(RECORD_IMAGE_INFO);
+            outputStream.writeInt(payload.length);
+            outputStream.write(payload);
+
+            storeAccess.seek(storeAccess.length());
+            storeAccess.write(records.toByteArray());
+            if (projectionId == projections.size()) {
+                projections.add(projection);
+                projectionIds.put(projection, projectionId);
+            }
+            recordIndexes.put(path, new RecordIndex(offset, length, lastModified));
+            memoryCache.put(path, payload);
+            infoRecordCount++;
+        } catch (IOException e) {
+            log.warn("写入影像信息缓存：{} 失败", path);
+        }
+    }
+
+    /**
+     * 打开日志文件并加载索引，末尾不完整的记录（写入时进程退出）会被截断
+     */
+    private void open() throws IOException {
+        storeAccess = new RandomAccessFile(storeFile, "rw");
+        infoRecordCount = 0;
+        if (storeAccess.length() < HEADER_LENGTH) {
+            storeAccess.setLength(0);
+            storeAccess.writeInt(MAGIC);
+            storeAccess.writeInt(VERSION);
+            return;
+        }
+
+        long fileLength = storeAccess.length();
+        long position = HEADER_LENGTH;
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile), 64 * 1024))) {
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+                storeAccess.close();
+                throw new IOException("不是影像信息缓存文件：" + storeFile.getAbsolutePath());
+            }
+            while (true) {
+                int type = inputStream.read();
+                if (type < 0)
+                    break;
+                int payloadLength = inputStream.readInt();
+                if (payloadLength < 0 || position + 5 + payloadLength > fileLength)
+                    throw new EOFException();
+                byte[] payload = new byte[payloadLength];
+                inputStream.readFully(payload);
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                if (type == RECORD_PROJECTION) {
+                    int id = record.readInt();
+                    String projection = new String(payload, 4, payloadLength - 4, StandardCharsets.UTF_8);
+                    while (projections.size() <= id)
+                        projections.add(null);
+                    projections.set(id, projection);
+                    projectionIds.put(projection, id);
+                } else if (type == RECORD_IMAGE_INFO) {
+                    String path = record.readUTF();
+                    recordIndexes.put(path, new RecordIndex(position, record.readLong(), record.readLong()));
+                    infoRecordCount++;
+                } else {
+                    throw new EOFException();
+                }
+                position += 5 + payloadLength;
+            }
+        } catch (EOFException e) {
+            log.warn("影像信息缓存：{} 末尾记录不完整，已截断", storeFile.getAbsolutePath());
+            storeAccess.setLength(position);
+        }
+    }
+
+    private byte[] readPayload(long offset) throws IOException {
+        storeAccess.seek(offset + 1);
+        byte[] payload = new byte[storeAccess.readInt()];
+        storeAccess.readFully(payload);
+        return payload;
+    }
+
+    private static byte[] projectionRecord(int id, String projection) throws IOException {
+        byte[] bytes = projection.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 9);
+        DataOutputStream outputStream = new DataOutputStream(record);
+        outputStream.writeByte(RECORD_PROJECTION);
+        outputStream.writeInt(bytes.length + 4);
+        outputStream.writeInt(id);
+        outputStream.write(bytes);
+        return record.toByteArray();
+    }
+
+    private static byte[] encode(String path, long length, long lastModified, ImageInfo imageInfo, int projectionId) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+        DataOutputStream outputStream = new DataOutputStream(payload);
+        outputStream.writeUTF(path);
+        outputStream.writeLong(length);
+        outputStream.writeLong(lastModified);
+        outputStream.writeInt(imageInfo.getBands());
+        outputStream.writeInt(imageInfo.getWidth());
+        outputStream.writeInt(imageInfo.getHeight());
+        writeString(outputStream, imageInfo.getBit());
+        outputStream.writeDouble(imageInfo.getMinLon());
+        outputStream.writeDouble(imageInfo.getMaxLon());
+        outputStream.writeDouble(imageInfo.getMinLat());
+        outputStream.writeDouble(imageInfo.getMaxLat());
+        writeDoubles(outputStream, imageInfo.getRange());
+        outputStream.writeInt(projectionId);
+        outputStream.writeInt(imageInfo.getLonRangeIndex());
+        outputStream.writeDouble(imageInfo.getResolution());
+        writeString(outputStream, imageInfo.getImageSizeSpec());
+        writeDoubles(outputStream, imageInfo.getProjectionRange());
+        CoordinateSystemType coordinateSystemType = imageInfo.getCoordinateSystemType();
+        outputStream.writeByte(coordinateSystemType == null ? -1 : coordinateSystemType.ordinal());
+        return payload.toByteArray();
+    }
+
+    private ImageInfo decode(byte[] payload) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(payload));
+        inputStream.readUTF();
+        inputStream.readLong();
+        inputStream.readLong();
+        ImageInfo imageInfo = new ImageInfo();
+        imageInfo.setBands(inputStream.readInt());
+        imageInfo.setWidth(inputStream.readInt());
+        imageInfo.setHeight(inputStream.readInt());
+        imageInfo.setBit(readString(inputStream));
+        imageInfo.setMinLon(inputStream.readDouble());
+        imageInfo.setMaxLon(inputStream.readDouble());
+        imageInfo.setMinLat(inputStream.readDouble());
+        imageInfo.setMaxLat(inputStream.readDouble());
+        imageInfo.setRange(readDoubles(inputStream));
+        int projectionId = inputStream.readInt();
+        imageInfo.setProjection(projectionId < 0 ? null : projections.get(projectionId));
+        imageInfo.setLonRangeIndex(inputStream.readInt());
+        imageInfo.setResolution(inputStream.readDouble());
+        imageInfo.setImageSizeSpec(readString(inputStream));
+        imageInfo.setProjectionRange(readDoubles(inputStream));
+        int coordinateSystemType = inputStream.readByte();
+        imageInfo.setCoordinateSystemType(coordinateSystemType < 0 ? null : CoordinateSystemType.values()[coordinateSystemType]);
+        return imageInfo;
+    }
+
+    private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+        outputStream.writeBoolean(value != null);
+        if (value != null)
+            outputStream.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream inputStream) throws IOException {
+        return inputStream.readBoolean() ? inputStream.readUTF() : null;
+    }
+
+    private static void writeDoubles(DataOutputStream outputStream, double[] values) throws IOException {
+        outputStream.writeInt(values == null ? -1 : values.length);
+        if (values != null) {
+            for (double value : values)
+                outputStream.writeDouble(value);
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream inputStream) throws IOException {
+        int length = inputStream.readInt();
+        if (length < 0)
+            return null;
+        double[] values = new double[length];
+        for (int index = 0; index < length; index++)
+            values[index] = inputStream.readDouble();
+        return values;
+    }
+
+    private static class RecordIndex {
+        private final long offset;
+        private final long length;
+        private final long lastModified;
+
+        private RecordIndex(long offset, long length, long lastModified){
+            this.offset = offset;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
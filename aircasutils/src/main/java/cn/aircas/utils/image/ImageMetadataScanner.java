@@ -0,0 +1,168 @@
+package cn.aircas.utils.image;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.gdal.gdal.gdal;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.*;
+
+/**
+ * 并行扫描目录下影像的元数据
+ * 遍历目录的同时将影像提交给有界线程池解析，每个影像解析完成后立即回调，最后汇总耗时和失败信息。
+ * 影像通过ParseImageInfo.parseInfoFast解析，tif影像直接读取文件头；提供ImageInfoCache时未修改的影像直接从缓存读取
+ * @author vanishrain
+ */
+@Slf4j
+public class ImageMetadataScanner {
+
+    static {
+        gdal.AllRegister();
+        gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
+    }
+
+    /**
+     * 扫描结果回调，在解析线程中调用，实现需要线程安全
+     */
+    public interface ScanListener {
+
+        /**
+         * 影像解析完成
+         * @param imagePath 影像路径
+         * @param imageInfo 影像信息
+         */
+        void onImage(String imagePath, ImageInfo imageInfo);
+
+        /**
+         * 影像解析失败
+         * @param imagePath 影像路径
+         * @param reason 失败原因
+         */
+        default void onFailure(String imagePath, String reason){
+        }
+    }
+
+    /**
+     * 扫描目录下的tif影像
+     * @param dirPath 目录
+     * @param parallelism 解析线程数
+     * @param listener 结果回调
+     * @return
+     */
+    public static ImageScanReport scan(String dirPath, int parallelism, ScanListener listener){
+        return scan(dirPath, new String[]{"tif","tiff"}, parallelism, listener);
+    }
+
+    /**
+     * 扫描目录下指定格式的影像
+     * @param dirPath 目录
+     * @param extensions 影像扩展名，不区分大小写
+     * @param parallelism 解析线程数
+     * @param listener 结果回调
+     * @return
+     */
+    public static ImageScanReport scan(String dirPath, String[] extensions, int parallelism, ScanListener listener){
+        return scan(dirPath, extensions, parallelism, null, listener);
+    }
+
+    /**
+     * 使用影像信息缓存扫描目录下指定格式的影像
+     * @param dirPath 目录
+     * @param extensions 影像扩展名，不区分大小写
+     * @param parallelism 解析线程数
+     * @param imageInfoCache 影像信息缓存，为null时不使用缓存
+     * @param listener 结果回调
+     * @return
+     */
+    public static ImageScanReport scan(String dirPath, String[] extensions, int parallelism, ImageInfoCache imageInfoCache, ScanListener listener){
+        long begin = System.nanoTime();
+        int threads = Math.max(1, parallelism);
+        ImageScanReport report = new ImageScanReport();
+        report.setRootPath(dirPath);
+
+        //队列满时由遍历线程自己解析，限制排队的任务数量
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            Files.walkFileTree(Paths.get(dirPath), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs){
+                    if (Thread.currentThread().isInterrupted())
+                        return FileVisitResult.TERMINATE;
+                    if (attrs.isRegularFile() && isExtension(file.getFileName().toString(), extensions)) {
+                        String imagePath = file.toAbsolutePath().toString();
+                        executor.execute(() -> parse(imagePath, imageInfoCache, report, listener));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc){
+                    log.warn("无法访问文件：{}，{}", file, exc.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.error("遍历目录：{} 失败", dirPath, e);
+        } finally {
+            executor.shutdown();
+        }
+
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("影像元数据扫描被中断", e);
+        }
+
+        report.setElapsedNanos(System.nanoTime() - begin);
+        log.info("目录：{} 扫描完成，共 {} 个影像，失败 {} 个，耗时：{}ms", dirPath, report.getScanned(),
+                report.getFailed(), report.getElapsedNanos() / 1000000);
+        return report;
+    }
+
+    private static void parse(String imagePath, ImageInfoCache imageInfoCache, ImageScanReport report, ScanListener listener){
+        long begin = System.nanoTime();
+        ImageInfo imageInfo = null;
+        String reason = null;
+        try {
+            imageInfo = imageInfoCache == null ? ParseImageInfo.parseInfoFast(imagePath) : imageInfoCache.get(imagePath);
+            //无法打开的影像返回空的影像信息
+            if (imageInfo.getWidth() <= 0) {
+                imageInfo = null;
+                reason = gdal.GetLastErrorMsg();
+            }
+        } catch (RuntimeException e) {
+            imageInfo = null;
+            reason = e.toString();
+        }
+        long parseNanos = System.nanoTime() - begin;
+
+        try {
+            if (imageInfo != null) {
+                report.recordSuccess(imagePath, parseNanos);
+                if (listener != null)
+                    listener.onImage(imagePath, imageInfo);
+            } else {
+                log.debug("影像：{} 解析失败，{}", imagePath, reason);
+                report.recordFailure(imagePath, parseNanos, reason);
+                if (listener != null)
+                    listener.onFailure(imagePath, reason);
+            }
+        } catch (RuntimeException e) {
+            log.error("影像：{} 的扫描回调执行失败", imagePath, e);
+        }
+    }
+
+    private static boolean isExtension(String fileName, String[] extensions){
+        String extension = FilenameUtils.getExtension(fileName);
+        for (String candidate : extensions) {
+            if (candidate.equalsIgnoreCase(extension))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,52 @@
+package cn.aircas.utils.image;
+
+import lombok.Data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 影像元数据扫描结果汇总，耗时单位均为纳秒
+ * @author vanishrain
+ */
+@Data
+public class ImageScanReport {
+    private String rootPath;
+    private int scanned;
+    private int succeeded;
+    private int failed;
+    private long elapsedNanos;
+    private long totalParseNanos;
+    private long maxParseNanos;
+    private String slowestImagePath;
+    //解析失败的影像路径及原因
+    private Map<String, String> failures = new LinkedHashMap<>();
+
+    /**
+     * 平均每个影像的解析耗时
+     * @return
+     */
+    public long getAverageParseNanos(){
+        return scanned == 0 ? 0 : totalParseNanos / scanned;
+    }
+
+    synchronized void recordSuccess(String imagePath, long parseNanos){
+        succeeded++;
+        record(imagePath, parseNanos);
+    }
+
+    synchronized void recordFailure(String imagePath, long parseNanos, String reason){
+        failed++;
+        failures.put(imagePath, reason);
+        record(imagePath, parseNanos);
+    }
+
+    private void record(String imagePath, long parseNanos){
+        scanned++;
+        totalParseNanos += parseNanos;
+        if (parseNanos > maxParseNanos) {
+            maxParseNanos = parseNanos;
+            slowestImagePath = imagePath;
+        }
+    }
+}
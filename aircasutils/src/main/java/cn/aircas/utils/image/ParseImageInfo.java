@@ -1,17 +1,29 @@
 package cn.aircas.utils.image;
 
 import cn.aircas.utils.image.emun.CoordinateSystemType;
+import cn.aircas.utils.image.geo.GeoReference;
 import cn.aircas.utils.image.geo.GeoUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.gdal.gdal.Dataset;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.gdal.gdal.gdal;
-import org.gdal.gdalconst.gdalconst;
+import org.gdal.osr.SpatialReference;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 public class ParseImageInfo {
 
+    private static final Map<Integer, String> EPSG_WKT = new ConcurrentHashMap<>();
+
+    private static final String[] SIDECAR_EXTENSIONS = {"tfw", "tifw", "tiffw", "wld", "tab"};
+
     static {
         gdal.AllRegister();
         gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
@@ -23,16 +35,167 @@ public class ParseImageInfo {
      * @return
      */
     public static ImageInfo parseInfo(String imagePath){
-        log.info("开始解析文件：{} 的地理信息",imagePath);
+        log.debug("开始解析文件：{} 的地理信息",imagePath);
 
-        long begin = System.currentTimeMillis();
+        long begin = System.nanoTime();
         ImageInfo imageInfo = new ImageInfo();
-        Dataset dataset = gdal.Open(imagePath,gdalconst.GA_ReadOnly);
-        if (dataset==null){
+        DatasetPool.PooledDataset pooledDataset = DatasetPool.borrow(imagePath);
+        if (pooledDataset==null){
             log.error("没有找到需要parseInfo的影像路径");
             return imageInfo;
         }
+        try {
+            parseInfo(pooledDataset.getDataset(), imageInfo);
+        } finally {
+            pooledDataset.close();
+        }
+        log.debug("文件：{} 的地理信息解析完成，耗时：{}ms",imagePath,(System.nanoTime()-begin)/1000000);
 
+        return imageInfo;
+    }
+
+    /**
+     * 快速读取影像的地理信息，tif影像直接解析文件头，不经过gdal；
+     * 非tif影像、控制点影像、自定义坐标系、地理信息在world文件等附属文件中等无法直接解析的情况使用parseInfo
+     * @param imagePath
+     * @return
+     */
+    public static ImageInfo parseInfoFast(String imagePath){
+        String extension = FilenameUtils.getExtension(imagePath);
+        boolean tiff = "tif".equalsIgnoreCase(extension) || "tiff".equalsIgnoreCase(extension);
+        if (tiff && !ArchiveRasterAccess.isVsiPath(imagePath)) {
+            try {
+                GeoTiffHeader geoTiffHeader = GeoTiffHeaderReader.read(imagePath);
+                //文件头缺少地理信息时gdal还会读取同名的world文件等附属文件，这种情况交给gdal
+                boolean complete = geoTiffHeader != null && geoTiffHeader.isHasGeoKeys() && geoTiffHeader.getGeoTransform() != null;
+                if (geoTiffHeader != null && !complete && hasSidecarGeoReference(imagePath))
+                    geoTiffHeader = null;
+                ImageInfo imageInfo = geoTiffHeader == null ? null : parseInfo(geoTiffHeader);
+                if (imageInfo != null)
+                    return imageInfo;
+            } catch (IOException | RuntimeException e) {
+                log.debug("文件：{} 的文件头解析失败，使用gdal解析，{}",imagePath,e.getMessage());
+            }
+        }
+        return parseInfo(imagePath);
+    }
+
+    /**
+     * 影像是否有gdal会读取的附属地理信息文件：world文件（.tfw .tifw .tiffw .wld）、MapInfo的.tab或.aux.xml
+     */
+    private static boolean hasSidecarGeoReference(String imagePath){
+        String basePath = FilenameUtils.removeExtension(imagePath);
+        for (String extension : SIDECAR_EXTENSIONS) {
+            if (new File(basePath + "." + extension).isFile() || new File(basePath + "." + extension.toUpperCase()).isFile())
+                return true;
+        }
+        return new File(imagePath + ".aux.xml").isFile() || new File(imagePath + ".AUX.XML").isFile();
+    }
+
+    /**
+     * 根据tif文件头生成影像信息，与parseInfo(Dataset, ImageInfo)的计算方式一致
+     * @return 需要gdal处理的情况返回null
+     */
+    private static ImageInfo parseInfo(GeoTiffHeader geoTiffHeader){
+        String dataType = geoTiffHeader.getDataTypeName();
+        if (dataType == null || geoTiffHeader.getWidth() <= 0 || geoTiffHeader.getHeight() <= 0)
+            return null;
+        double[] geoTransform = geoTiffHeader.getGeoTransform();
+        if (geoTransform == null && geoTiffHeader.getTiepointCount() > 1)
+            return null;
+
+        String projection = "";
+        if (geoTiffHeader.isHasGeoKeys()) {
+            if (geoTiffHeader.getEpsgCode() == null)
+                return null;
+            projection = epsgToWkt(geoTiffHeader.getEpsgCode());
+            if (projection == null)
+                return null;
+        }
+        if (geoTransform == null)
+            geoTransform = new double[]{0,1,0,0,0,1};
+
+        int width = geoTiffHeader.getWidth();
+        int height = geoTiffHeader.getHeight();
+        double[] lonLatCoordinateRange = new double[]{0,0,0,0};
+        double[] projectionCoordinateRange = new double[]{0,0,0,0};
+        CoordinateSystemType coordinateSystemType = CoordinateSystemType.GEOGCS;
+        double resolution = Double.parseDouble(String.format("%.2f",geoTransform[1] * 111194.872221777));
+
+        if (Arrays.equals(geoTransform,new double[]{0,1,0,0,0,1}) || StringUtils.isBlank(projection)){
+            resolution = 0;
+            coordinateSystemType = CoordinateSystemType.PIXELCS;
+        }else {
+            if (geoTransform[0] > 180){
+                resolution = 1;
+                coordinateSystemType = CoordinateSystemType.PROJCS;
+            }
+            lonLatCoordinateRange = GeoUtils.getCoordinateRange(geoTransform,width,height,projection,GeoUtils.COORDINATE_LONLAT);
+            projectionCoordinateRange = GeoUtils.getCoordinateRange(geoTransform,width,height,projection,GeoUtils.COORDINATE_PROJECTION);
+        }
+
+        ImageInfo imageInfo = new ImageInfo();
+        imageInfo.setBit(dataType);
+        imageInfo.setResolution(resolution);
+        imageInfo.setLonRangeIndex(calculateLonRangeIndex(lonLatCoordinateRange[1],lonLatCoordinateRange[3]));
+        imageInfo.setImageSizeSpec(calculateImageSizeSpec(width,height));
+        imageInfo.setRange(lonLatCoordinateRange);
+        imageInfo.setBands(geoTiffHeader.getBands());
+        imageInfo.setWidth(width);
+        imageInfo.setMinLon(lonLatCoordinateRange[0]);
+        imageInfo.setMinLat(lonLatCoordinateRange[1]);
+        imageInfo.setMaxLon(lonLatCoordinateRange[2]);
+        imageInfo.setMaxLat(lonLatCoordinateRange[3]);
+        imageInfo.setHeight(height);
+        imageInfo.setProjection(projection);
+        imageInfo.setProjectionRange(projectionCoordinateRange);
+        imageInfo.setCoordinateSystemType(coordinateSystemType);
+        return imageInfo;
+    }
+
+    /**
+     * EPSG编码转WKT，结果缓存
+     * @return 无法识别的编码返回null
+     */
+    private static String epsgToWkt(int epsgCode){
+        return EPSG_WKT.computeIfAbsent(epsgCode, code -> {
+            SpatialReference spatialReference = new SpatialReference();
+            try {
+                if (spatialReference.ImportFromEPSG(code) != 0)
+                    return null;
+                return spatialReference.ExportToWkt();
+            } catch (RuntimeException e) {
+                return null;
+            } finally {
+                spatialReference.delete();
+            }
+        });
+    }
+
+    /**
+     * 读取影像的地理参考信息快照，可与parseInfo的结果配合使用进行像素、坐标转换
+     * @param imagePath
+     * @return 无法打开影像时返回null
+     */
+    public static GeoReference parseGeoReference(String imagePath){
+        DatasetPool.PooledDataset pooledDataset = DatasetPool.borrow(imagePath);
+        if (pooledDataset==null){
+            log.error("没有找到需要parseGeoReference的影像路径");
+            return null;
+        }
+        try {
+            return pooledDataset.getGeoReference();
+        } finally {
+            pooledDataset.close();
+        }
+    }
+
+    /**
+     * 从已打开的数据集中读取地理信息
+     * @param dataset
+     * @param imageInfo 结果
+     */
+    static void parseInfo(Dataset dataset, ImageInfo imageInfo){
         double[] lonLatCoordinateRange = new double[]{0,0,0,0};
         double[] projectionCoordinateRange = new double[]{0,0,0,0};
         CoordinateSystemType coordinateSystemType = CoordinateSystemType.GEOGCS;
@@ -77,12 +240,6 @@ public class ParseImageInfo {
         imageInfo.setProjection(dataset.GetProjectionRef());
         imageInfo.setProjectionRange(projectionCoordinateRange);
         imageInfo.setCoordinateSystemType(coordinateSystemType);
-        log.info("文件：{} 的地理信息解析完成",imagePath);
-
-        long end = System.currentTimeMillis();
-        log.info("地理信息解析总耗时：{}",end-begin);
-
-        return imageInfo;
     }
 
 
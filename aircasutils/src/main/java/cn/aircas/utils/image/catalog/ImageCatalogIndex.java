@@ -0,0 +1,358 @@
+package cn.aircas.utils.image.catalog;
+
+import cn.aircas.utils.image.ImageInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * 影像目录空间索引，用于快速查询覆盖某个点或范围的影像
+ * 采用STR批量装填的R树，新增的影像先放入增量列表，删除的影像只做标记，
+ * 增量和失效数据超过阈值后重新装填。所有方法线程安全
+ * @author vanishrain
+ */
+@Slf4j
+public class ImageCatalogIndex {
+
+    private static final int MAGIC = 0x41494349;
+
+    private static final int VERSION = 1;
+
+    //R树每个节点的最大子节点数
+    private static final int NODE_CAPACITY = 16;
+
+    //增量列表和失效数据达到索引大小的该比例时重新装填
+    private static final double REBUILD_RATIO = 0.1;
+
+    private static final int MIN_REBUILD_THRESHOLD = 64;
+
+    private final Map<String, ImageFootprint> footprints = new HashMap<>();
+
+    private final List<ImageFootprint> delta = new ArrayList<>();
+
+    private Node root;
+
+    //R树中已被删除或替换的影像数量
+    private int staleCount;
+
+    /**
+     * 添加影像，已存在的同路径影像会被替换
+     * @param imagePath 影像路径
+     * @param imageInfo ParseImageInfo解析的影像信息
+     * @return 像素坐标系的影像没有地理范围，不会加入索引，返回false
+     */
+    public boolean insert(String imagePath, ImageInfo imageInfo){
+        ImageFootprint footprint = ImageFootprint.of(imagePath, imageInfo);
+        if (footprint == null)
+            return false;
+        insert(footprint);
+        return true;
+    }
+
+    /**
+     * 添加影像覆盖范围，已存在的同路径影像会被替换
+     * @param footprint
+     */
+    public synchronized void insert(ImageFootprint footprint){
+        ImageFootprint previous = footprints.put(footprint.getImagePath(), footprint);
+        if (previous != null && !delta.remove(previous))
+            staleCount++;
+        delta.add(footprint);
+        rebuildIfNeeded();
+    }
+
+    /**
+     * 删除影像
+     * @param imagePath 影像路径
+     * @return 索引中是否存在该影像
+     */
+    public synchronized boolean remove(String imagePath){
+        ImageFootprint previous = footprints.remove(imagePath);
+        if (previous == null)
+            return false;
+        if (!delta.remove(previous))
+            staleCount++;
+        rebuildIfNeeded();
+        return true;
+    }
+
+    public synchronized ImageFootprint get(String imagePath){
+        return footprints.get(imagePath);
+    }
+
+    public synchronized int size(){
+        return footprints.size();
+    }
+
+    public synchronized void clear(){
+        footprints.clear();
+        delta.clear();
+        root = null;
+        staleCount = 0;
+    }
+
+    /**
+     * 查询覆盖指定点的影像
+     * @param lon 经度
+     * @param lat 纬度
+     * @return 影像路径
+     */
+    public synchronized List<String> queryPoint(double lon, double lat){
+        return query(lon, lat, lon, lat);
+    }
+
+    /**
+     * 查询与指定范围相交的影像
+     * @return 影像路径
+     */
+    public synchronized List<String> query(double minLon, double minLat, double maxLon, double maxLat){
+        List<String> result = new ArrayList<>();
+        if (root != null)
+            search(root, minLon, minLat, maxLon, maxLat, result);
+        for (ImageFootprint footprint : delta) {
+            if (footprint.intersects(minLon, minLat, maxLon, maxLat))
+                result.add(footprint.getImagePath());
+        }
+        return result;
+    }
+
+    /**
+     * 查询距离指定点最近的k个影像，距离为点到影像范围的平面距离，覆盖该点的影像距离为0
+     * @param lon 经度
+     * @param lat 纬度
+     * @param k 数量
+     * @return 按距离由近到远排列的影像路径
+     */
+    public synchronized List<String> nearest(double lon, double lat, int k){
+        List<String> result = new ArrayList<>();
+        if (k <= 0)
+            return result;
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        if (root != null)
+            queue.add(new Candidate(root.distanceSquared(lon, lat), root, null));
+        for (ImageFootprint footprint : delta)
+            queue.add(new Candidate(footprint.distanceSquared(lon, lat), null, footprint));
+
+        while (!queue.isEmpty() && result.size() < k) {
+            Candidate candidate = queue.poll();
+            if (candidate.footprint != null) {
+                result.add(candidate.footprint.getImagePath());
+                continue;
+            }
+            Node node = candidate.node;
+            if (node.children != null) {
+                for (Node child : node.children)
+                    queue.add(new Candidate(child.distanceSquared(lon, lat), child, null));
+            } else {
+                for (ImageFootprint footprint : node.footprints) {
+                    if (isLive(footprint))
+                        queue.add(new Candidate(footprint.distanceSquared(lon, lat), null, footprint));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 立即将增量列表装填进R树并清除失效数据
+     */
+    public synchronized void rebuild(){
+        root = pack(new ArrayList<>(footprints.values()));
+        delta.clear();
+        staleCount = 0;
+    }
+
+    /**
+     * 将索引保存为二进制文件
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void save(File file) throws IOException {
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeInt(footprints.size());
+            for (ImageFootprint footprint : footprints.values()) {
+                outputStream.writeUTF(footprint.getImagePath());
+                outputStream.writeDouble(footprint.getMinLon());
+                outputStream.writeDouble(footprint.getMinLat());
+                outputStream.writeDouble(footprint.getMaxLon());
+                outputStream.writeDouble(footprint.getMaxLat());
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        //原子替换，保存过程中读取或进程退出都不会看到缺失或写了一半的索引文件
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 从二进制文件加载索引
+     * @param file save保存的索引文件
+     * @return
+     * @throws IOException 文件格式错误
+     */
+    public static ImageCatalogIndex load(File file) throws IOException {
+        ImageCatalogIndex index = new ImageCatalogIndex();
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (inputStream.readInt() != MAGIC)
+                throw new IOException("不是影像目录索引文件：" + file.getAbsolutePath());
+            int version = inputStream.readInt();
+            if (version != VERSION)
+                throw new IOException("不支持的影像目录索引版本：" + version);
+            int count = inputStream.readInt();
+            for (int i = 0; i < count; i++) {
+                ImageFootprint footprint = new ImageFootprint(inputStream.readUTF(), inputStream.readDouble(),
+                        inputStream.readDouble(), inputStream.readDouble(), inputStream.readDouble());
+                index.footprints.put(footprint.getImagePath(), footprint);
+            }
+        }
+        index.rebuild();
+        log.info("加载影像目录索引 {} 个影像：{}", index.footprints.size(), file.getAbsolutePath());
+        return index;
+    }
+
+    private boolean isLive(ImageFootprint footprint){
+        return footprints.get(footprint.getImagePath()) == footprint;
+    }
+
+    private void rebuildIfNeeded(){
+        int threshold = Math.max(MIN_REBUILD_THRESHOLD, (int) (footprints.size() * REBUILD_RATIO));
+        if (delta.size() + staleCount > threshold)
+            rebuild();
+    }
+
+    private void search(Node node, double minLon, double minLat, double maxLon, double maxLat, List<String> result){
+        if (!node.intersects(minLon, minLat, maxLon, maxLat))
+            return;
+        if (node.children != null) {
+            for (Node child : node.children)
+                search(child, minLon, minLat, maxLon, maxLat, result);
+            return;
+        }
+        for (ImageFootprint footprint : node.footprints) {
+            if (footprint.intersects(minLon, minLat, maxLon, maxLat) && isLive(footprint))
+                result.add(footprint.getImagePath());
+        }
+    }
+
+    /**
+     * STR（Sort-Tile-Recursive）装填：按中心经度排序后分成若干竖条，每条内按中心纬度排序后切分为叶子节点，
+     * 再对上一层节点重复该过程直到只剩一个根节点
+     */
+    private static Node pack(List<ImageFootprint> items){
+        if (items.isEmpty())
+            return null;
+
+        List<Node> level = new ArrayList<>();
+        for (List<ImageFootprint> group : strGroups(items, Comparator.comparingDouble(ImageFootprint::centerLon),
+                Comparator.comparingDouble(ImageFootprint::centerLat)))
+            level.add(Node.leaf(group.toArray(new ImageFootprint[0])));
+
+        while (level.size() > 1) {
+            List<Node> parents = new ArrayList<>();
+            for (List<Node> group : strGroups(level, Comparator.comparingDouble(Node::centerLon),
+                    Comparator.comparingDouble(Node::centerLat)))
+                parents.add(Node.branch(group.toArray(new Node[0])));
+            level = parents;
+        }
+        return level.get(0);
+    }
+
+    private static <T> List<List<T>> strGroups(List<T> items, Comparator<T> byX, Comparator<T> byY){
+        int nodeCount = (items.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        int sliceSize = sliceCount * NODE_CAPACITY;
+
+        List<T> sorted = new ArrayList<>(items);
+        sorted.sort(byX);
+        List<List<T>> groups = new ArrayList<>(nodeCount);
+        for (int sliceStart = 0; sliceStart < sorted.size(); sliceStart += sliceSize) {
+            List<T> slice = new ArrayList<>(sorted.subList(sliceStart, Math.min(sliceStart + sliceSize, sorted.size())));
+            slice.sort(byY);
+            for (int start = 0; start < slice.size(); start += NODE_CAPACITY)
+                groups.add(slice.subList(start, Math.min(start + NODE_CAPACITY, slice.size())));
+        }
+        return groups;
+    }
+
+    private static class Node {
+        private double minLon = Double.POSITIVE_INFINITY;
+        private double minLat = Double.POSITIVE_INFINITY;
+        private double maxLon = Double.NEGATIVE_INFINITY;
+        private double maxLat = Double.NEGATIVE_INFINITY;
+        private Node[] children;
+        private ImageFootprint[] footprints;
+
+        private static Node leaf(ImageFootprint[] footprints){
+            Node node = new Node();
+            node.footprints = footprints;
+            for (ImageFootprint footprint : footprints)
+                node.expand(footprint.getMinLon(), footprint.getMinLat(), footprint.getMaxLon(), footprint.getMaxLat());
+            return node;
+        }
+
+        private static Node branch(Node[] children){
+            Node node = new Node();
+            node.children = children;
+            for (Node child : children)
+                node.expand(child.minLon, child.minLat, child.maxLon, child.maxLat);
+            return node;
+        }
+
+        private void expand(double minLon, double minLat, double maxLon, double maxLat){
+            this.minLon = Math.min(this.minLon, minLon);
+            this.minLat = Math.min(this.minLat, minLat);
+            this.maxLon = Math.max(this.maxLon, maxLon);
+            this.maxLat = Math.max(this.maxLat, maxLat);
+        }
+
+        private boolean intersects(double minLon, double minLat, double maxLon, double maxLat){
+            return this.minLon <= maxLon && this.maxLon >= minLon && this.minLat <= maxLat && this.maxLat >= minLat;
+        }
+
+        private double distanceSquared(double lon, double lat){
+            double dx = lon < minLon ? minLon - lon : (lon > maxLon ? lon - maxLon : 0);
+            double dy = lat < minLat ? minLat - lat : (lat > maxLat ? lat - maxLat : 0);
+            return dx * dx + dy * dy;
+        }
+
+        private double centerLon(){
+            return (minLon + maxLon) / 2;
+        }
+
+        private double centerLat(){
+            return (minLat + maxLat) / 2;
+        }
+    }
+
+    /**
+     * 最近邻查询的候选项，节点或影像
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        private final double distance;
+        private final Node node;
+        private final ImageFootprint footprint;
+
+        private Candidate(double distance, Node node, ImageFootprint footprint){
+            this.distance = distance;
+            this.node = node;
+            this.footprint = footprint;
+        }
+
+        @Override
+        public int compareTo(Candidate other){
+            int compare = Double.compare(distance, other.distance);
+            //距离相同时先返回影像，保证结果按距离有序
+            if (compare == 0)
+                compare = Boolean.compare(footprint == null, other.footprint == null);
+            return compare;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package cn.aircas.utils.image.catalog;
+
+import cn.aircas.utils.image.ImageInfo;
+import cn.aircas.utils.image.emun.CoordinateSystemType;
+
+/**
+ * 影像在经纬度坐标系下的覆盖范围，创建后不可修改
+ * @author vanishrain
+ */
+public final class ImageFootprint {
+
+    private final String imagePath;
+    private final double minLon;
+    private final double minLat;
+    private final double maxLon;
+    private final double maxLat;
+
+    public ImageFootprint(String imagePath, double minLon, double minLat, double maxLon, double maxLat){
+        if (imagePath == null)
+            throw new IllegalArgumentException("影像路径不能为空");
+        this.imagePath = imagePath;
+        this.minLon = Math.min(minLon, maxLon);
+        this.minLat = Math.min(minLat, maxLat);
+        this.maxLon = Math.max(minLon, maxLon);
+        this.maxLat = Math.max(minLat, maxLat);
+    }
+
+    /**
+     * 根据影像信息创建覆盖范围
+     * @param imagePath 影像路径
+     * @param imageInfo ParseImageInfo解析的影像信息
+     * @return 像素坐标系的影像没有地理范围，返回null
+     */
+    public static ImageFootprint of(String imagePath, ImageInfo imageInfo){
+        if (imageInfo == null || imageInfo.getCoordinateSystemType() == CoordinateSystemType.PIXELCS)
+            return null;
+        return new ImageFootprint(imagePath, imageInfo.getMinLon(), imageInfo.getMinLat(),
+                imageInfo.getMaxLon(), imageInfo.getMaxLat());
+    }
+
+    public boolean contains(double lon, double lat){
+        return lon >= minLon && lon <= maxLon && lat >= minLat && lat <= maxLat;
+    }
+
+    public boolean intersects(double minLon, double minLat, double maxLon, double maxLat){
+        return this.minLon <= maxLon && this.maxLon >= minLon && this.minLat <= maxLat && this.maxLat >= minLat;
+    }
+
+    /**
+     * 点到覆盖范围的平面距离平方，单位为度，点在范围内时为0
+     */
+    double distanceSquared(double lon, double lat){
+        double dx = lon < minLon ? minLon - lon : (lon > maxLon ? lon - maxLon : 0);
+        double dy = lat < minLat ? minLat - lat : (lat > maxLat ? lat - maxLat : 0);
+        return dx * dx + dy * dy;
+    }
+
+    double centerLon(){
+        return (minLon + maxLon) / 2;
+    }
+
+    double centerLat(){
+        return (minLat + maxLat) / 2;
+    }
+
+    public String getImagePath(){
+        return imagePath;
+    }
+
+    public double getMinLon(){
+        return minLon;
+    }
+
+    public double getMinLat(){
+        return minLat;
+    }
+
+    public double getMaxLon(){
+        return maxLon;
+    }
+
+    public double getMaxLat(){
+        return maxLat;
+    }
+}
@@ -0,0 +1,72 @@
+package cn.aircas.utils.image.geo;
+
+import org.gdal.osr.CoordinateTransformation;
+import org.gdal.osr.SpatialReference;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 坐标转换对象缓存
+ * 以源坐标系WKT和转换方向作为key，ogr的CoordinateTransformation不是线程安全的，因此每个线程各自缓存，
+ * 同一坐标系的重复转换不再重新解析WKT和初始化PROJ
+ * @author vanishrain
+ */
+public class CoordinateTransformCache {
+
+    private static volatile int maxEntriesPerThread = 16;
+
+    private static final ThreadLocal<Map<String, CoordinateTransformation>> CACHE = ThreadLocal.withInitial(() ->
+            new LinkedHashMap<String, CoordinateTransformation>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CoordinateTransformation> eldest) {
+                    if (size() <= maxEntriesPerThread)
+                        return false;
+                    eldest.getValue().delete();
+                    return true;
+                }
+            });
+
+    /**
+     * 设置每个线程缓存的坐标转换对象数量
+     * @param entries
+     */
+    public static void setMaxEntriesPerThread(int entries){
+        maxEntriesPerThread = entries;
+    }
+
+    /**
+     * 获取当前线程的坐标转换对象，返回的对象只能在当前线程中使用
+     * @param projection 影像坐标系WKT
+     * @param coordinateType 目标坐标类型 GeoUtils.COORDINATE_LONLAT 投影转经纬度，GeoUtils.COORDINATE_PROJECTION 经纬度转投影
+     * @return
+     */
+    public static CoordinateTransformation get(String projection, String coordinateType){
+        boolean toLonLat = GeoUtils.COORDINATE_LONLAT.equals(coordinateType);
+        String key = (toLonLat ? GeoUtils.COORDINATE_LONLAT : GeoUtils.COORDINATE_PROJECTION) + "|" + projection;
+        Map<String, CoordinateTransformation> transformations = CACHE.get();
+        CoordinateTransformation coordinateTransformation = transformations.get(key);
+        if (coordinateTransformation == null) {
+            SpatialReference srcSpatialReference = new SpatialReference(projection);
+            SpatialReference destSpatialReference = srcSpatialReference.CloneGeogCS();
+            if (toLonLat)
+                coordinateTransformation = new CoordinateTransformation(srcSpatialReference, destSpatialReference);
+            else
+                coordinateTransformation = new CoordinateTransformation(destSpatialReference, srcSpatialReference);
+            destSpatialReference.delete();
+            srcSpatialReference.delete();
+            transformations.put(key, coordinateTransformation);
+        }
+        return coordinateTransformation;
+    }
+
+    /**
+     * 释放当前线程缓存的所有坐标转换对象，线程池中的线程结束使用时调用
+     */
+    public static void clear(){
+        Map<String, CoordinateTransformation> transformations = CACHE.get();
+        for (CoordinateTransformation coordinateTransformation : transformations.values())
+            coordinateTransformation.delete();
+        transformations.clear();
+    }
+}
@@ -0,0 +1,216 @@
+package cn.aircas.utils.image.geo;
+
+import cn.aircas.utils.image.emun.CoordinateSystemType;
+import org.apache.commons.lang3.StringUtils;
+import org.gdal.gdal.Dataset;
+import org.gdal.osr.SpatialReference;
+
+import java.util.Arrays;
+
+/**
+ * 影像地理参考信息快照，创建后不可修改
+ * 保存六参数地理变换及其逆变换、影像大小、坐标系类型和坐标系信息，
+ * 像素与坐标的相互转换为纯java计算，不再调用jni，支持旋转的地理变换。
+ * 与GeoUtils.pixel2Coordinate、getCoordinateRange一致，按北向上换算：x方向分辨率取正值、y方向分辨率取负值，
+ * 没有地理信息的影像（地理变换为{0,1,0,0,0,1}）坐标y为像素行号取负
+ * @author vanishrain
+ */
+public final class GeoReference {
+
+    private final int width;
+    private final int height;
+    private final String projection;
+    private final boolean projected;
+    private final double[] geoTransform;
+    //按北向上换算使用的地理变换
+    private final double[] northUpGeoTransform;
+    private final double[] inverseGeoTransform;
+    private final CoordinateSystemType coordinateSystemType;
+    //EPSG编码需要解析WKT，首次使用时才计算
+    private volatile String epsgCode;
+    private volatile boolean epsgResolved;
+
+    private GeoReference(int width, int height, String projection, double[] geoTransform,
+                         CoordinateSystemType coordinateSystemType){
+        this.width = width;
+        this.height = height;
+        this.projection = projection;
+        this.geoTransform = geoTransform;
+        this.northUpGeoTransform = northUp(geoTransform);
+        this.inverseGeoTransform = invert(northUpGeoTransform);
+        this.coordinateSystemType = coordinateSystemType;
+        this.projected = coordinateSystemType == CoordinateSystemType.PROJCS && projection.contains("PROJCS");
+    }
+
+    /**
+     * 读取数据集的地理参考信息
+     * @param dataset
+     * @return
+     */
+    public static GeoReference of(Dataset dataset){
+        return of(dataset.GetGeoTransform(), dataset.getRasterXSize(), dataset.getRasterYSize(), dataset.GetProjection());
+    }
+
+    /**
+     * 根据地理变换参数和坐标系创建地理参考信息，不需要打开数据集
+     * @param geoTransform 六参数地理变换，为null时视为没有地理信息
+     * @param width 影像宽度
+     * @param height 影像高度
+     * @param projection 影像坐标系WKT
+     * @return
+     */
+    public static GeoReference of(double[] geoTransform, int width, int height, String projection){
+        double[] transform = geoTransform == null ? new double[]{0,1,0,0,0,1} : geoTransform.clone();
+        String wkt = projection == null ? "" : projection;
+
+        //与GeoUtils.hasGeoInfo的判断一致
+        CoordinateSystemType coordinateSystemType = CoordinateSystemType.GEOGCS;
+        if (Arrays.equals(transform, new double[]{0,1,0,0,0,1}) || StringUtils.isBlank(wkt))
+            coordinateSystemType = CoordinateSystemType.PIXELCS;
+        else if (transform[0] > 180)
+            coordinateSystemType = CoordinateSystemType.PROJCS;
+        return new GeoReference(width, height, wkt, transform, coordinateSystemType);
+    }
+
+    /**
+     * 像素点转坐标点，结果写入output
+     * @param x 像素x
+     * @param y 像素y
+     * @param output 长度不小于2的数组
+     */
+    public void pixelToCoordinate(double x, double y, double[] output){
+        double[] gt = northUpGeoTransform;
+        output[0] = gt[0] + x * gt[1] + y * gt[2];
+        output[1] = gt[3] + x * gt[4] + y * gt[5];
+    }
+
+    /**
+     * 坐标点转像素点，结果写入output
+     * @param x 影像坐标系下的x
+     * @param y 影像坐标系下的y
+     * @param output 长度不小于2的数组
+     */
+    public void coordinateToPixel(double x, double y, double[] output){
+        double[] inverse = inverseGeoTransform;
+        output[0] = inverse[0] + x * inverse[1] + y * inverse[2];
+        output[1] = inverse[3] + x * inverse[4] + y * inverse[5];
+    }
+
+    /**
+     * 批量像素点转坐标点，原地转换
+     * @param points 交错存储的像素点 x0,y0,x1,y1...
+     */
+    public void pixelToCoordinate(double[] points){
+        double[] gt = northUpGeoTransform;
+        for (int index = 0; index + 1 < points.length; index += 2) {
+            double x = points[index], y = points[index + 1];
+            points[index] = gt[0] + x * gt[1] + y * gt[2];
+            points[index + 1] = gt[3] + x * gt[4] + y * gt[5];
+        }
+    }
+
+    /**
+     * 批量坐标点转像素点，原地转换
+     * @param points 交错存储的坐标点 x0,y0,x1,y1...
+     */
+    public void coordinateToPixel(double[] points){
+        double[] inverse = inverseGeoTransform;
+        for (int index = 0; index + 1 < points.length; index += 2) {
+            double x = points[index], y = points[index + 1];
+            points[index] = inverse[0] + x * inverse[1] + y * inverse[2];
+            points[index + 1] = inverse[3] + x * inverse[4] + y * inverse[5];
+        }
+    }
+
+    /**
+     * 影像在原始坐标系下的范围 {minX, minY, maxX, maxY}，与GeoUtils.getCoordinateRange不转换坐标系时的结果一致
+     * @return
+     */
+    public double[] getCoordinateRange(){
+        double[] topLeft = new double[2];
+        double[] bottomRight = new double[2];
+        pixelToCoordinate(0, 0, topLeft);
+        pixelToCoordinate(width, height, bottomRight);
+        return new double[]{topLeft[0], bottomRight[1], bottomRight[0], topLeft[1]};
+    }
+
+    /**
+     * x方向分辨率取正值、y方向分辨率取负值，旋转参数不变
+     */
+    private static double[] northUp(double[] gt){
+        return new double[]{gt[0], Math.abs(gt[1]), gt[2], gt[3], gt[4], -Math.abs(gt[5])};
+    }
+
+    /**
+     * 计算地理变换的逆变换，不可逆时返回全0
+     */
+    private static double[] invert(double[] gt){
+        double det = gt[1] * gt[5] - gt[2] * gt[4];
+        if (Math.abs(det) < 1e-15)
+            return new double[6];
+        double invDet = 1.0 / det;
+        return new double[]{
+                (gt[2] * gt[3] - gt[0] * gt[5]) * invDet,
+                gt[5] * invDet,
+                -gt[2] * invDet,
+                (-gt[1] * gt[3] + gt[0] * gt[4]) * invDet,
+                -gt[4] * invDet,
+                gt[1] * invDet};
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public String getProjection(){
+        return projection;
+    }
+
+    /**
+     * 坐标系的EPSG编码，无法识别时为null
+     * @return
+     */
+    public String getEpsgCode(){
+        if (!epsgResolved) {
+            synchronized (this) {
+                if (!epsgResolved) {
+                    if (StringUtils.isNotBlank(projection)) {
+                        SpatialReference spatialReference = new SpatialReference(projection);
+                        epsgCode = spatialReference.GetAuthorityCode(null);
+                        spatialReference.delete();
+                    }
+                    epsgResolved = true;
+                }
+            }
+        }
+        return epsgCode;
+    }
+
+    /**
+     * 是否为投影坐标，与GeoUtils.isProjection的判断一致
+     * @return
+     */
+    public boolean isProjection(){
+        return projected;
+    }
+
+    public double[] getGeoTransform(){
+        return geoTransform.clone();
+    }
+
+    /**
+     * 按北向上换算的地理变换的逆变换，坐标转像素使用
+     * @return
+     */
+    public double[] getInverseGeoTransform(){
+        return inverseGeoTransform.clone();
+    }
+
+    public CoordinateSystemType getCoordinateSystemType(){
+        return coordinateSystemType;
+    }
+}
@@ -1,11 +1,12 @@
 package cn.aircas.utils.image.geo;
 
+import cn.aircas.utils.image.DatasetPool;
+import cn.aircas.utils.metrics.Metrics;
 import org.apache.commons.lang3.StringUtils;
 import org.gdal.gdal.Dataset;
 import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconst;
 import org.gdal.osr.CoordinateTransformation;
-import org.gdal.osr.SpatialReference;
 
 import java.util.Arrays;
 
@@ -42,9 +43,9 @@ public class GeoUtils {
      * @return
      */
     public static boolean isProjection(String imagePath){
-        gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
-        Dataset dataset = gdal.Open(imagePath);
-        return isProjection(dataset);
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imagePath)) {
+            return isProjection(pooledDataset.getDataset());
+        }
     }
 
     /**
@@ -67,13 +68,9 @@ public class GeoUtils {
      * @return
      */
     public static boolean hasGeoInfo(String imageFilePath){
-        boolean flag = true;
-        Dataset dataset = gdal.Open(imageFilePath);
-        double[] geoTransform = dataset.GetGeoTransform();
-        double[] noGeoTransform = new double[]{0,1,0,0,0,1};
-        if (Arrays.equals(geoTransform,noGeoTransform) || StringUtils.isBlank(dataset.GetProjection()))
-            flag = false;
-        return flag;
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imageFilePath)) {
+            return hasGeoInfo(pooledDataset.getDataset());
+        }
     }
 
 
@@ -84,8 +81,9 @@ public class GeoUtils {
      * @return
      */
     public static double[] getCoordinateRange(String imageFilePath, String coordinateType){
-        Dataset dataset = gdal.Open(imageFilePath);
-        return getCoordinateRange(dataset,coordinateType);
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imageFilePath)) {
+            return getCoordinateRange(pooledDataset.getDataset(),coordinateType);
+        }
     }
 
     /**
@@ -95,16 +93,31 @@ public class GeoUtils {
      * @return
      */
     public static double[] getCoordinateRange(Dataset dataset, String coordinateType){
-        int imageWidth = dataset.getRasterXSize();
-        int imageHeight = dataset.getRasterYSize();
-        double[] geoTransform = dataset.GetGeoTransform();
-        String originalCoordinateType = isProjection(dataset) ? GeoUtils.COORDINATE_PROJECTION : GeoUtils.COORDINATE_LONLAT;
+        return getCoordinateRange(dataset.GetGeoTransform(),dataset.getRasterXSize(),dataset.getRasterYSize(),
+                dataset.GetProjection(),coordinateType);
+    }
+
+    /**
+     * 根据地理变换参数和坐标系获取影像的经纬度范围，不需要打开数据集
+     * @param geoTransform 六参数地理变换
+     * @param imageWidth 影像宽度
+     * @param imageHeight 影像高度
+     * @param projection 影像坐标系WKT
+     * @param coordinateType 坐标类型 GeoUtils.COORDINATE_LONLAT GeoUtils.COORDINATE_PROJECTION  经纬度坐标或者投影坐标
+     * @return
+     */
+    public static double[] getCoordinateRange(double[] geoTransform, int imageWidth, int imageHeight, String projection, String coordinateType){
+        boolean projected = projection!=null && projection.contains("PROJCS") && geoTransform[0] > 180;
+        String originalCoordinateType = projected ? GeoUtils.COORDINATE_PROJECTION : GeoUtils.COORDINATE_LONLAT;
 
         double rightX = geoTransform[0] + Math.abs(imageWidth * geoTransform[1]) + imageHeight * geoTransform[2];
         double rightY = geoTransform[3] + imageWidth * geoTransform[4] - Math.abs(imageHeight * geoTransform[5]);
         if(!coordinateType.equals(originalCoordinateType)){
-            double[] leftUpPoint = coordinateConvertor(geoTransform[0],geoTransform[3],dataset,coordinateType);
-            double[] rightBottomPoint = coordinateConvertor(rightX,rightY,dataset,coordinateType);
+            CoordinateTransformation coordinateTransformation = CoordinateTransformCache.get(projection, coordinateType);
+            double[] leftUpPoint = new double[3];
+            double[] rightBottomPoint = new double[3];
+            coordinateTransformation.TransformPoint(leftUpPoint,geoTransform[0],geoTransform[3]);
+            coordinateTransformation.TransformPoint(rightBottomPoint,rightX,rightY);
             return new double[]{leftUpPoint[0],rightBottomPoint[1],rightBottomPoint[0],leftUpPoint[1]};
         }
 
@@ -141,8 +154,9 @@ public class GeoUtils {
      * @return
      */
     public static double[] pixel2Coordinate(double x, double y, String imagePath, String coordinateType){
-        Dataset dataset = gdal.Open(imagePath);
-        return pixel2Coordinate(x,y,dataset,coordinateType);
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imagePath)) {
+            return pixel2Coordinate(x,y,pooledDataset.getDataset(),coordinateType);
+        }
     }
 
 
@@ -153,8 +167,9 @@ public class GeoUtils {
      * @return 像素范围
      */
     public static double[] lonLatRange2PixelRange(double[] coordinateRange, String srcPath){
-        Dataset dataset = gdal.Open(srcPath);
-        return lonLatRange2PixelRange(coordinateRange,dataset);
+        try (DatasetPool.PooledDataset pooledDataset = borrow(srcPath)) {
+            return lonLatRange2PixelRange(coordinateRange,pooledDataset.getDataset());
+        }
     }
 
     /**
@@ -189,8 +204,9 @@ public class GeoUtils {
      * @return 转换后的坐标点
      */
     public static double[] coordinateConvertor(double x, double y, String imagePath, String coordinateType){
-        Dataset dataset = gdal.Open(imagePath);
-        return coordinateConvertor(x,y,dataset,coordinateType);
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imagePath)) {
+            return coordinateConvertor(x,y,pooledDataset.getDataset(),coordinateType);
+        }
     }
 
 
@@ -205,15 +221,11 @@ public class GeoUtils {
     public static double[] coordinateConvertor(double x, double y, Dataset dataset, String coordinateType){
         double[] coordinate = new double[]{0,0,0};
         String projection = dataset.GetProjection();
-        CoordinateTransformation coordinateTransformation;
-        SpatialReference srcSpatialReference = new SpatialReference(projection);
-        SpatialReference destSpatialReference =  srcSpatialReference.CloneGeogCS();
-
-        if (COORDINATE_LONLAT.equals(coordinateType))
-            coordinateTransformation = new CoordinateTransformation(srcSpatialReference, destSpatialReference);
-        else
-            coordinateTransformation = new CoordinateTransformation(destSpatialReference, srcSpatialReference);
+        long begin = System.nanoTime();
+        CoordinateTransformation coordinateTransformation = CoordinateTransformCache.get(projection, coordinateType);
         coordinateTransformation.TransformPoint(coordinate, x, y);
+        Metrics.recordSince(Metrics.COORDINATE_TRANSFORM, begin);
+        Metrics.increment(Metrics.COORDINATE_TRANSFORM_POINTS, 1);
 
         return coordinate;
     }
@@ -228,19 +240,22 @@ public class GeoUtils {
      * @return
      */
     public static double[] convertCoordinateToPixel(double lon, double lat, Dataset dataset, String coordinateType){
-        double[] srcInfo;
-        int srcWidth = dataset.getRasterXSize();
-        int srcHeight = dataset.getRasterYSize();
-        String originalCoordinateType = isProjection(dataset) ? GeoUtils.COORDINATE_PROJECTION : GeoUtils.COORDINATE_LONLAT;
-        srcInfo = getCoordinateRange(dataset,originalCoordinateType);
-
-        double srcLatRange = srcInfo[3] - srcInfo[1];
-        double srcLonRange = srcInfo[2] - srcInfo[0];
-
-        int xPixel = (int) (srcWidth * (lon - srcInfo[0]) / srcLonRange);
-        int yPixel = (int) (srcHeight * (srcInfo[3] - lat) / srcLatRange);
+        return convertCoordinateToPixel(lon,lat,GeoReference.of(dataset));
+    }
 
-        return new double[]{xPixel,yPixel};
+    /**
+     * 将影像坐标系下的坐标转换成像素坐标，使用逆地理变换计算，支持旋转的地理变换
+     * @param lon
+     * @param lat
+     * @param geoReference 影像地理参考信息
+     * @return
+     */
+    public static double[] convertCoordinateToPixel(double lon, double lat, GeoReference geoReference){
+        double[] pixel = new double[2];
+        geoReference.coordinateToPixel(lon,lat,pixel);
+        pixel[0] = (int) pixel[0];
+        pixel[1] = (int) pixel[1];
+        return pixel;
     }
 
 
@@ -253,8 +268,185 @@ public class GeoUtils {
      * @return
      */
     public static double[] convertCoordinateToPixel(double lon, double lat, String imagePath, String coordinateType){
-        Dataset dataset = gdal.Open(imagePath);
-        return convertCoordinateToPixel(lon,lat,dataset,coordinateType);
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imagePath)) {
+            return convertCoordinateToPixel(lon,lat,pooledDataset.getGeoReference());
+        }
+    }
+
+    /**
+     * 批量像素点转坐标点，地理变换参数只读取一次，坐标系转换使用TransformPoints一次完成
+     * @param xs 像素x
+     * @param ys 像素y
+     * @param dataset
+     * @param coordinateType 目标坐标类型
+     * @return {x数组, y数组}
+     */
+    public static double[][] pixel2Coordinate(double[] xs, double[] ys, Dataset dataset, String coordinateType){
+        return unpackPoints(pixel2Coordinate(packPoints(xs,ys),dataset,coordinateType));
+    }
+
+    /**
+     * 批量像素点转坐标点
+     * @param points 交错存储的像素点 x0,y0,x1,y1...
+     * @param dataset
+     * @param coordinateType 目标坐标类型
+     * @return 交错存储的坐标点
+     */
+    public static double[] pixel2Coordinate(double[] points, Dataset dataset, String coordinateType){
+        double[] geoTransform = dataset.GetGeoTransform();
+        double[] coordinates = new double[points.length];
+        for (int index = 0; index + 1 < points.length; index += 2) {
+            double x = points[index], y = points[index + 1];
+            coordinates[index] = geoTransform[0] + Math.abs(x * geoTransform[1]) + y * geoTransform[2];
+            coordinates[index + 1] = geoTransform[3] + x * geoTransform[4] - Math.abs(y * geoTransform[5]);
+        }
+        String originalCoordinateType = isProjection(dataset) ? GeoUtils.COORDINATE_PROJECTION : GeoUtils.COORDINATE_LONLAT;
+        if (originalCoordinateType.equalsIgnoreCase(coordinateType))
+            return coordinates;
+        return transformPoints(coordinates,dataset.GetProjection(),coordinateType);
+    }
+
+    /**
+     * 批量像素点转坐标点
+     * @param points 交错存储的像素点 x0,y0,x1,y1...
+     * @param imagePath 影像路径
+     * @param coordinateType 目标坐标类型
+     * @return 交错存储的坐标点
+     */
+    public static double[] pixel2Coordinate(double[] points, String imagePath, String coordinateType){
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imagePath)) {
+            return pixel2Coordinate(points,pooledDataset.getDataset(),coordinateType);
+        }
+    }
+
+    /**
+     * 批量坐标转换 经纬度、投影坐标相互转换
+     * @param xs
+     * @param ys
+     * @param dataset gdal dataset
+     * @param coordinateType 坐标类型
+     * @return {x数组, y数组}
+     */
+    public static double[][] coordinateConvertor(double[] xs, double[] ys, Dataset dataset, String coordinateType){
+        return unpackPoints(coordinateConvertor(packPoints(xs,ys),dataset,coordinateType));
+    }
+
+    /**
+     * 批量坐标转换 经纬度、投影坐标相互转换
+     * @param points 交错存储的坐标点 x0,y0,x1,y1...
+     * @param dataset gdal dataset
+     * @param coordinateType 坐标类型
+     * @return 交错存储的转换后坐标点
+     */
+    public static double[] coordinateConvertor(double[] points, Dataset dataset, String coordinateType){
+        return transformPoints(points.clone(),dataset.GetProjection(),coordinateType);
+    }
+
+    /**
+     * 批量坐标转换 经纬度、投影坐标相互转换
+     * @param points 交错存储的坐标点 x0,y0,x1,y1...
+     * @param imagePath 影像路径
+     * @param coordinateType 坐标类型
+     * @return 交错存储的转换后坐标点
+     */
+    public static double[] coordinateConvertor(double[] points, String imagePath, String coordinateType){
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imagePath)) {
+            return coordinateConvertor(points,pooledDataset.getDataset(),coordinateType);
+        }
+    }
+
+    /**
+     * 批量将坐标转换成像素坐标，影像范围只计算一次
+     * @param lons
+     * @param lats
+     * @param dataset
+     * @param coordinateType
+     * @return {x数组, y数组}
+     */
+    public static double[][] convertCoordinateToPixel(double[] lons, double[] lats, Dataset dataset, String coordinateType){
+        return unpackPoints(convertCoordinateToPixel(packPoints(lons,lats),dataset,coordinateType));
+    }
+
+    /**
+     * 批量将坐标转换成像素坐标
+     * @param points 交错存储的坐标点 lon0,lat0,lon1,lat1...
+     * @param dataset
+     * @param coordinateType
+     * @return 交错存储的像素点
+     */
+    public static double[] convertCoordinateToPixel(double[] points, Dataset dataset, String coordinateType){
+        return convertCoordinateToPixel(points,GeoReference.of(dataset));
+    }
+
+    /**
+     * 批量将影像坐标系下的坐标转换成像素坐标
+     * @param points 交错存储的坐标点 lon0,lat0,lon1,lat1...
+     * @param geoReference 影像地理参考信息
+     * @return 交错存储的像素点
+     */
+    public static double[] convertCoordinateToPixel(double[] points, GeoReference geoReference){
+        double[] pixels = points.clone();
+        geoReference.coordinateToPixel(pixels);
+        for (int index = 0; index < pixels.length; index++)
+            pixels[index] = (int) pixels[index];
+        return pixels;
+    }
+
+    /**
+     * 批量将坐标转换成像素坐标
+     * @param points 交错存储的坐标点 lon0,lat0,lon1,lat1...
+     * @param imagePath 影像路径
+     * @param coordinateType
+     * @return 交错存储的像素点
+     */
+    public static double[] convertCoordinateToPixel(double[] points, String imagePath, String coordinateType){
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imagePath)) {
+            return convertCoordinateToPixel(points,pooledDataset.getGeoReference());
+        }
+    }
+
+    /**
+     * 使用TransformPoints一次转换交错存储的所有坐标点，结果写回传入的数组
+     */
+    private static double[] transformPoints(double[] points, String projection, String coordinateType){
+        int count = points.length / 2;
+        if (count == 0)
+            return points;
+        double[][] transformPoints = new double[count][2];
+        for (int index = 0; index < count; index++) {
+            transformPoints[index][0] = points[index * 2];
+            transformPoints[index][1] = points[index * 2 + 1];
+        }
+        long begin = System.nanoTime();
+        CoordinateTransformCache.get(projection, coordinateType).TransformPoints(transformPoints);
+        Metrics.recordSince(Metrics.COORDINATE_TRANSFORM, begin);
+        Metrics.increment(Metrics.COORDINATE_TRANSFORM_POINTS, count);
+        for (int index = 0; index < count; index++) {
+            points[index * 2] = transformPoints[index][0];
+            points[index * 2 + 1] = transformPoints[index][1];
+        }
+        return points;
+    }
+
+    private static double[] packPoints(double[] xs, double[] ys){
+        if (xs.length != ys.length)
+            throw new IllegalArgumentException("x、y坐标数量不一致");
+        double[] points = new double[xs.length * 2];
+        for (int index = 0; index < xs.length; index++) {
+            points[index * 2] = xs[index];
+            points[index * 2 + 1] = ys[index];
+        }
+        return points;
+    }
+
+    private static double[][] unpackPoints(double[] points){
+        int count = points.length / 2;
+        double[][] result = new double[2][count];
+        for (int index = 0; index < count; index++) {
+            result[0][index] = points[index * 2];
+            result[1][index] = points[index * 2 + 1];
+        }
+        return result;
     }
 
     /**
@@ -278,8 +470,21 @@ public class GeoUtils {
      * @return 切片的像素范围
      */
     private static double[] convertCoordinateRangeToPixelRange(double[] range, String imagePath, String coordinateType){
-        Dataset dataset = gdal.Open(imagePath);
-        return convertCoordinateRangeToPixelRange(range,dataset,coordinateType);
+        try (DatasetPool.PooledDataset pooledDataset = borrow(imagePath)) {
+            return convertCoordinateRangeToPixelRange(range,pooledDataset.getDataset(),coordinateType);
+        }
+    }
+
+    /**
+     * 从句柄池借出影像的数据集
+     * @param imagePath 影像路径
+     * @return
+     */
+    private static DatasetPool.PooledDataset borrow(String imagePath){
+        DatasetPool.PooledDataset pooledDataset = DatasetPool.borrow(imagePath);
+        if (pooledDataset == null)
+            throw new IllegalArgumentException("无法打开影像：" + imagePath);
+        return pooledDataset;
     }
 
 }
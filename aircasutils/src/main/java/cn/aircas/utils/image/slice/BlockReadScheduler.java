@@ -0,0 +1,204 @@
+package cn.aircas.utils.image.slice;
+
+import cn.aircas.utils.file.FileUtils;
+import cn.aircas.utils.metrics.Metrics;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.Driver;
+import org.gdal.gdalconst.gdalconst;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按原始影像分块布局调度读取的批量切片器
+ * 以一行切片为单位，按块对齐的列区间一次读出所有波段，同一行相邻切片共享已解码的数据，
+ * 条带存储的影像每个条带只解码一次
+ * @author vanishrain
+ */
+public class BlockReadScheduler {
+
+    private static volatile long rowBufferLimit = 128L * 1024 * 1024;
+
+    private final int[] bands;
+    private final int columns;
+    private final int sliceSize;
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int blockXSize;
+    private final int blockYSize;
+    private final int[] readTypes;
+    private final int[] pixelBytes;
+    private final int maxPixelBytes;
+    private final int outputBandCount;
+    private final boolean consistency;
+    private final StretchKernel[] stretchKernels;
+
+    /**
+     * @param dataset 原始影像，仅用于读取影像结构
+     * @param imageHistogramMinMax 直方图拉伸参数
+     * @param sliceSize 切片大小
+     * @param consistency 是否维持每行每列最后一张切片大小一致
+     */
+    public BlockReadScheduler(Dataset dataset, float[] imageHistogramMinMax, int sliceSize, boolean consistency){
+        this.sliceSize = sliceSize;
+        this.consistency = consistency;
+        this.imageWidth = dataset.getRasterXSize();
+        this.imageHeight = dataset.getRasterYSize();
+        this.columns = (int)Math.ceil((double) imageWidth / sliceSize);
+        this.bands = SliceGenerateUtil.getRGBBand(dataset);
+        this.outputBandCount = dataset.getRasterCount() == 2 ? 1 : Math.min(dataset.getRasterCount(), 3);
+
+        int[] blockXSizes = new int[1];
+        int[] blockYSizes = new int[1];
+        Band firstBand = dataset.GetRasterBand(bands[0]);
+        firstBand.GetBlockSize(blockXSizes, blockYSizes);
+        this.blockXSize = Math.max(1, blockXSizes[0]);
+        this.blockYSize = Math.max(1, blockYSizes[0]);
+
+        int maxBytes = 1;
+        this.readTypes = new int[bands.length];
+        this.pixelBytes = new int[bands.length];
+        this.stretchKernels = new StretchKernel[bands.length];
+        for (int band = 0; band < bands.length; band++) {
+            int dataType = dataset.GetRasterBand(bands[band]).GetRasterDataType();
+            if (StretchKernel.supports(dataType)) {
+                stretchKernels[band] = StretchKernel.lookup(dataType, imageHistogramMinMax[band * 2], imageHistogramMinMax[band * 2 + 1]);
+                readTypes[band] = dataType;
+                pixelBytes[band] = stretchKernels[band].getPixelBytes();
+            } else {
+                readTypes[band] = gdalconst.GDT_Byte;
+                pixelBytes[band] = 1;
+            }
+            maxBytes = Math.max(maxBytes, pixelBytes[band]);
+        }
+        this.maxPixelBytes = maxBytes;
+    }
+
+    /**
+     * 设置每个线程读取一行切片时使用的缓冲区上限，超过上限时该行按块对齐的列区间分段读取
+     * @param bytes 字节数
+     */
+    public static void setRowBufferLimit(long bytes){
+        rowBufferLimit = bytes;
+    }
+
+    /**
+     * 生成第row行的所有切片
+     * @param dataset 当前线程独占的原始影像
+     * @param pDriver 输出驱动
+     * @param row 切片行号
+     * @param outputDir 输出文件夹
+     * @param baseName 切片文件名前缀
+     * @return 该行切片信息，包含按分块布局估算的每张切片新解码的字节数
+     */
+    public List<SliceInfo> sliceRow(Dataset dataset, Driver pDriver, int row, String outputDir, String baseName){
+        List<SliceInfo> sliceInfos = new ArrayList<>(columns);
+        double[] firstRange = SliceGenerateUtil.sliceNo2PixelRange(imageWidth,imageHeight,row * columns,sliceSize,consistency);
+        int rowMinY = (int) firstRange[1];
+        int rowHeight = (int) firstRange[3] - rowMinY;
+        long bytesPerColumn = (long) rowHeight * maxPixelBytes * bands.length;
+
+        int column = 0;
+        while (column < columns) {
+            //确定本段包含的切片列，段的边界落在切片边界上
+            int chunkEnd = column;
+            int chunkMinX = (int) SliceGenerateUtil.sliceNo2PixelRange(imageWidth,imageHeight,row * columns + column,sliceSize,consistency)[0];
+            int chunkMaxX = chunkMinX;
+            while (chunkEnd < columns) {
+                double[] range = SliceGenerateUtil.sliceNo2PixelRange(imageWidth,imageHeight,row * columns + chunkEnd,sliceSize,consistency);
+                int maxX = Math.max(chunkMaxX, (int) range[2]);
+                if (chunkEnd > column && (maxX - chunkMinX) * bytesPerColumn > rowBufferLimit)
+                    break;
+                chunkMaxX = maxX;
+                chunkEnd++;
+            }
+            sliceChunk(dataset, pDriver, row, column, chunkEnd, chunkMinX, chunkMaxX, rowMinY, rowHeight, outputDir, baseName, sliceInfos);
+            column = chunkEnd;
+        }
+        return sliceInfos;
+    }
+
+    private void sliceChunk(Dataset dataset, Driver pDriver, int row, int firstColumn, int endColumn, int chunkMinX, int chunkMaxX,
+                            int rowMinY, int rowHeight, String outputDir, String baseName, List<SliceInfo> sliceInfos){
+        int chunkWidth = chunkMaxX - chunkMinX;
+        //单张切片的列宽超过分段上限时仍整段读取，缓冲区大小需按long计算，超出单个缓冲区容量时无法读取
+        long chunkBytes = (long) chunkWidth * rowHeight * maxPixelBytes * bands.length;
+        if (chunkBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("切片行缓冲区过大：" + chunkBytes + "字节，请减小切片大小");
+        int bandRegion = chunkWidth * rowHeight * maxPixelBytes;
+        ByteBuffer chunkBuffer = StretchKernel.readBuffer(chunkBytes);
+        for (int band = 0; band < bands.length; band++) {
+            ByteBuffer bandView = chunkBuffer.duplicate();
+            bandView.position(band * bandRegion);
+            bandView.limit(band * bandRegion + chunkWidth * rowHeight * pixelBytes[band]);
+            Band pBandRead = dataset.GetRasterBand(bands[band]);
+            pBandRead.ReadRaster_Direct(chunkMinX,rowMinY,chunkWidth,rowHeight,chunkWidth,rowHeight,readTypes[band],bandView.slice());
+            pBandRead.delete();
+            Metrics.increment(Metrics.SLICE_BYTES_READ, (long) chunkWidth * rowHeight * pixelBytes[band]);
+        }
+
+        //统计每张切片新解码的块，块被本段中前面的切片解码过则不再计入
+        long blockBytes = 0;
+        for (int band = 0; band < bands.length; band++)
+            blockBytes += (long) blockXSize * blockYSize * pixelBytes[band];
+        int blockRows = (rowMinY + rowHeight - 1) / blockYSize - rowMinY / blockYSize + 1;
+        int decodedBlockColumn = -1;
+
+        String projection = dataset.GetProjection();
+        double[] srcGeoTransform = dataset.GetGeoTransform();
+        for (int column = firstColumn; column < endColumn; column++) {
+            int sliceNo = row * columns + column;
+            double[] range = SliceGenerateUtil.sliceNo2PixelRange(imageWidth,imageHeight,sliceNo,sliceSize,consistency);
+            int minX = (int) range[0], maxX = (int) range[2];
+            int sliceWidth = maxX - minX;
+
+            int firstBlockColumn = Math.max(minX / blockXSize, decodedBlockColumn + 1);
+            int lastBlockColumn = (maxX - 1) / blockXSize;
+            long estimatedBytesDecoded = Math.max(0, lastBlockColumn - firstBlockColumn + 1) * blockRows * blockBytes;
+            decodedBlockColumn = Math.max(decodedBlockColumn, lastBlockColumn);
+
+            String outputPath = FileUtils.getStringPath(outputDir, baseName + "_" + sliceNo + ".tif");
+            double[] sliceGeoTransform = SliceGenerateUtil.sliceGeoTransform(srcGeoTransform, range);
+            Dataset pDSOut = pDriver.Create(outputPath, sliceWidth, rowHeight, outputBandCount, gdalconst.GDT_Byte);
+            if (sliceGeoTransform != null)
+                pDSOut.SetGeoTransform(sliceGeoTransform);
+            pDSOut.SetProjection(projection);
+
+            ByteBuffer writeBuffer = StretchKernel.writeBuffer((long) sliceWidth * rowHeight);
+            for (int band = 0; band < bands.length; band++) {
+                int bandPixelOffset = band * bandRegion / pixelBytes[band] + (minX - chunkMinX);
+                if (stretchKernels[band] != null)
+                    stretchKernels[band].apply(chunkBuffer, bandPixelOffset, chunkWidth, sliceWidth, rowHeight, writeBuffer);
+                else
+                    copyWindow(chunkBuffer, bandPixelOffset, chunkWidth, sliceWidth, rowHeight, writeBuffer);
+                Band pBandWrite = pDSOut.GetRasterBand(band + 1);
+                pBandWrite.WriteRaster_Direct(0,0,sliceWidth,rowHeight,sliceWidth,rowHeight,gdalconst.GDT_Byte,writeBuffer);
+                pBandWrite.delete();
+            }
+            pDSOut.delete();
+
+            SliceInfo sliceInfo = new SliceInfo();
+            sliceInfo.setRange(range);
+            sliceInfo.setSliceNo(sliceNo);
+            sliceInfo.setEstimatedBytesDecoded(estimatedBytesDecoded);
+            sliceInfo.setOutputPath(outputPath);
+            sliceInfo.setGeoTransform(sliceGeoTransform);
+            sliceInfos.add(sliceInfo);
+        }
+    }
+
+    private static void copyWindow(ByteBuffer src, int srcOffset, int srcRowStride, int width, int height, ByteBuffer dst){
+        int dstIndex = 0;
+        for (int row = 0; row < height; row++) {
+            int srcIndex = srcOffset + row * srcRowStride;
+            for (int column = 0; column < width; column++)
+                dst.put(dstIndex++, src.get(srcIndex++));
+        }
+    }
+
+    public int getColumns(){
+        return columns;
+    }
+}
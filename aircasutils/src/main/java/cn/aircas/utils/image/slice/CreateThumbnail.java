@@ -1,6 +1,8 @@
 package cn.aircas.utils.image.slice;
 
 import cn.aircas.utils.file.FileUtils;
+import cn.aircas.utils.image.DatasetPool;
+import cn.aircas.utils.metrics.Metrics;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FilenameUtils;
 import org.gdal.gdal.Dataset;
@@ -18,13 +20,28 @@ public class CreateThumbnail {
 	private static final long BIG_FILE_SIZE = 150 * 1024L;
 
 	public static boolean createThumbnail(String filePath, String output, int maxLength) {
+		return createThumbnail(filePath, output, maxLength, false);
+	}
+
+	/**
+	 * 创建缩略图
+	 * @param filePath 影像路径
+	 * @param output 缩略图输出路径
+	 * @param maxLength 缩略图最长边
+	 * @param buildOverviews 影像没有概视图时是否先创建外部.ovr概视图，缩略图从概视图读取
+	 * @return
+	 */
+	public static boolean createThumbnail(String filePath, String output, int maxLength, boolean buildOverviews) {
 		float scale ;
+		long begin = System.nanoTime();
+		if (buildOverviews)
+			SliceGenerateUtil.buildOverviews(filePath, true);
 		gdal.AllRegister();
 		Driver pDriver = gdal.GetDriverByName("MEM");
 		gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
 		gdal.SetConfigOption("GDAL_FILENAME_IS_UTF8", "YES");
 		gdal.SetConfigOption("SHAPE_ENCODING","");
-		Dataset pDataset = gdal.Open(filePath, gdalconst.GA_ReadOnly);
+		Dataset pDataset = DatasetPool.open(filePath);
 
 		int xSize,ySize;
 		int dataXSize = pDataset.GetRasterXSize();
@@ -48,6 +65,8 @@ public class CreateThumbnail {
 		poDriver.CreateCopy(output,pDSOut);
 		poDriver.delete();
 		pDSOut.delete();
+		pDataset.delete();
+		Metrics.recordSince(Metrics.THUMBNAIL, begin);
 		return true;
 	}
 
@@ -0,0 +1,113 @@
+package cn.aircas.utils.image.slice;
+
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.Driver;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconst;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+/**
+ * 将8位切片数据集编码为图片字节流
+ * JPEG、PNG在内存中编码，不产生临时文件；gdal 3.0的java接口无法读取/vsimem/中的文件内容，GTiff仍经由临时文件输出
+ * @author vanishrain
+ */
+public class SliceEncoder {
+
+    /**
+     * 切片编码格式
+     */
+    public enum SliceFormat {
+        JPEG("jpg"), PNG("png"), GTIFF("tif");
+
+        private final String extension;
+
+        SliceFormat(String extension){
+            this.extension = extension;
+        }
+
+        public String getExtension(){
+            return extension;
+        }
+
+        /**
+         * 根据格式名或扩展名获取编码格式
+         * @param format JPEG jpg PNG png GTiff tif tiff
+         * @return
+         */
+        public static SliceFormat of(String format){
+            if ("jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format))
+                return JPEG;
+            if ("png".equalsIgnoreCase(format))
+                return PNG;
+            if ("gtiff".equalsIgnoreCase(format) || "tif".equalsIgnoreCase(format) || "tiff".equalsIgnoreCase(format))
+                return GTIFF;
+            throw new IllegalArgumentException("不支持的切片格式：" + format);
+        }
+    }
+
+    /**
+     * 将8位数据集编码后写入输出流
+     * @param pDSOut 8位数据集，1波段或3波段
+     * @param sliceFormat 编码格式
+     * @param outputStream 输出流，不会被关闭
+     * @throws IOException
+     */
+    public static void encode(Dataset pDSOut, SliceFormat sliceFormat, OutputStream outputStream) throws IOException {
+        if (sliceFormat == SliceFormat.GTIFF) {
+            encodeGTiff(pDSOut, outputStream);
+            return;
+        }
+
+        int width = pDSOut.getRasterXSize();
+        int height = pDSOut.getRasterYSize();
+        int bandCount = pDSOut.getRasterCount();
+        BufferedImage image;
+        if (bandCount >= 3) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            //BufferedImage按BGR交错存储，依次读取RGB波段后交错写入
+            pDSOut.ReadRaster(0, 0, width, height, width, height, gdalconst.GDT_Byte, pixels, new int[]{3, 2, 1}, 3, width * 3, 1);
+        } else {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            pDSOut.GetRasterBand(1).ReadRaster(0, 0, width, height, pixels);
+        }
+
+        Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName(sliceFormat == SliceFormat.JPEG ? "jpg" : "png");
+        if (!imageWriters.hasNext())
+            throw new IOException("没有可用的图片编码器：" + sliceFormat);
+        ImageWriter imageWriter = imageWriters.next();
+        try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(outputStream)) {
+            imageWriter.setOutput(imageOutputStream);
+            imageWriter.write(null, new IIOImage(image, null, null), imageWriter.getDefaultWriteParam());
+        } finally {
+            imageWriter.dispose();
+        }
+    }
+
+    private static void encodeGTiff(Dataset pDSOut, OutputStream outputStream) throws IOException {
+        File tempFile = File.createTempFile("slice", ".tif");
+        try {
+            Driver gtiffDriver = gdal.GetDriverByName("GTiff");
+            Dataset output = gtiffDriver.CreateCopy(tempFile.getAbsolutePath(), pDSOut);
+            if (output == null)
+                throw new IOException("GTiff编码失败：" + gdal.GetLastErrorMsg());
+            output.delete();
+            Files.copy(tempFile.toPath(), outputStream);
+        } finally {
+            tempFile.delete();
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package cn.aircas.utils.image.slice;
 
 import cn.aircas.utils.file.FileUtils;
+import cn.aircas.utils.image.ArchiveRasterAccess;
+import cn.aircas.utils.image.DatasetPool;
+import cn.aircas.utils.metrics.Metrics;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FilenameUtils;
 import org.gdal.gdal.Band;
@@ -9,8 +12,19 @@ import org.gdal.gdal.Driver;
 import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconst;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 影像切片工具
@@ -38,7 +52,7 @@ public class SliceGenerateUtil {
             driverName = "JPEG";
         if (fileExtension.equalsIgnoreCase("tif") || fileExtension.equalsIgnoreCase("tiff"))
             driverName = "GTiff";
-        Dataset dataset = gdal.Open(srcPath);
+        Dataset dataset = DatasetPool.open(srcPath);
         Driver jpegDriver = gdal.GetDriverByName(driverName);
         Driver pDriver = gdal.GetDriverByName("MEM");
         int srcWidth = dataset.getRasterXSize();
@@ -74,6 +88,100 @@ public class SliceGenerateUtil {
     }
 
 
+    /**
+     * 根据范围对影像进行切割，编码后直接返回字节数组，不写磁盘文件
+     * @param range 像素范围
+     * @param srcPath 影像路径
+     * @param format 编码格式 JPEG PNG GTiff
+     * @return 编码后的切片
+     * @throws IOException
+     */
+    public static byte[] generateSliceBytes(double[] range, String srcPath, String format) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        generateSlice(range, srcPath, format, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * 根据范围对影像进行切割，编码后写入调用方提供的输出流
+     * @param range 像素范围
+     * @param srcPath 影像路径
+     * @param format 编码格式 JPEG PNG GTiff
+     * @param outputStream 输出流，不会被关闭
+     * @throws IOException
+     */
+    public static void generateSlice(double[] range, String srcPath, String format, OutputStream outputStream) throws IOException {
+        gdal.AllRegister();
+        gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
+        Dataset dataset = DatasetPool.open(srcPath);
+        if (dataset == null)
+            throw new IOException("无法打开影像：" + srcPath);
+        try {
+            encodeSlice(dataset, range, SliceEncoder.SliceFormat.of(format), calculateImageHistogramMinMax(dataset), outputStream);
+        } finally {
+            dataset.delete();
+        }
+    }
+
+    /**
+     * 按固定大小切割第sliceNo块切片，编码后直接返回字节数组，不写磁盘文件
+     * @param sliceNo 切片号
+     * @param size 切片大小
+     * @param srcPath 影像路径
+     * @param format 编码格式 JPEG PNG GTiff
+     * @param consistency 是否维持每行每列最后一张切片大小一致
+     * @return 编码后的切片
+     * @throws IOException
+     */
+    public static byte[] generateSliceBytesByFixedSize(int sliceNo, int size, String srcPath, String format, boolean consistency) throws IOException {
+        gdal.AllRegister();
+        gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
+        Dataset dataset = DatasetPool.open(srcPath);
+        if (dataset == null)
+            throw new IOException("无法打开影像：" + srcPath);
+        try {
+            double[] range = sliceNo2PixelRange(dataset.getRasterXSize(),dataset.getRasterYSize(),sliceNo,size,consistency);
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            encodeSlice(dataset, range, SliceEncoder.SliceFormat.of(format), calculateImageHistogramMinMax(dataset), byteArrayOutputStream);
+            return byteArrayOutputStream.toByteArray();
+        } finally {
+            dataset.delete();
+        }
+    }
+
+    /**
+     * 在内存数据集中生成切片并编码写入输出流
+     * @param dataset 已打开的原始影像
+     * @param range 像素范围
+     * @param sliceFormat 编码格式
+     * @param imageHistogramMinMax 直方图拉伸参数
+     * @param outputStream 输出流，不会被关闭
+     * @throws IOException
+     */
+    public static void encodeSlice(Dataset dataset, double[] range, SliceEncoder.SliceFormat sliceFormat, float[] imageHistogramMinMax, OutputStream outputStream) throws IOException {
+        int srcWidth = dataset.getRasterXSize();
+        int srcHeight = dataset.getRasterYSize();
+        int minX = range[0] >= 0 ? (int) range[0] : 0;
+        int minY = range[1] >= 0 ? (int) range[1] : 0;
+        int maxX = range[2] >= srcWidth ? srcWidth : (int) range[2];
+        int maxY = range[3] >= srcHeight ? srcHeight : (int) range[3];
+        int sliceWidth = maxX - minX;
+        int sliceHeight = maxY - minY;
+
+        Driver pDriver = gdal.GetDriverByName("MEM");
+        int pDSOutBand = dataset.getRasterCount() == 2 ? 1 : Math.min(dataset.getRasterCount(), 3);
+        Dataset pDSOut = pDriver.Create("", sliceWidth, sliceHeight, pDSOutBand, gdalconst.GDT_Byte);
+        try {
+            double[] sliceGeoTransform = sliceGeoTransform(dataset.GetGeoTransform(), new double[]{minX,minY,maxX,maxY});
+            if (sliceGeoTransform != null)
+                pDSOut.SetGeoTransform(sliceGeoTransform);
+            sliceDataset(dataset,pDSOut,minX,minY,sliceWidth,sliceHeight,sliceWidth,sliceHeight,imageHistogramMinMax);
+            SliceEncoder.encode(pDSOut, sliceFormat, outputStream);
+        } finally {
+            pDSOut.delete();
+        }
+    }
+
     /**
      * 根据原图像数据和切片xml对图像进行切割
      * 存在output路径中
@@ -85,19 +193,112 @@ public class SliceGenerateUtil {
     public static double[] generateSliceByFixedSize(int sliceNo, int size, String srcPath, String outputPath, boolean consistency){
         gdal.AllRegister();
         gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
-        double[] sliceGeoTransform = null;
-        Dataset dataset = gdal.Open(srcPath);
+        Dataset dataset = DatasetPool.open(srcPath);
 
         double[] range = sliceNo2PixelRange(dataset.getRasterXSize(),dataset.getRasterYSize(),sliceNo,size,consistency);
+        Driver pDriver = gdal.GetDriverByName("GTiff");
+        writeFixedSizeSlice(dataset,pDriver,range,outputPath,calculateImageHistogramMinMax(dataset));
 
-        double[] srcGeoTransform = dataset.GetGeoTransform();
-        if(srcGeoTransform!=null){
-            double sliceMinLon = srcGeoTransform[0] + range[0] * srcGeoTransform[1] + range[1] * srcGeoTransform[2];
-            double sliceMaxLat = srcGeoTransform[3] + range[0] * srcGeoTransform[4] + range[1] * srcGeoTransform[5];
-            sliceGeoTransform = new double[]{sliceMinLon,srcGeoTransform[1],srcGeoTransform[2],sliceMaxLat,srcGeoTransform[4],srcGeoTransform[5]};
+        dataset.delete();
+        return range;
+    }
+
+    /**
+     * 将整幅影像按固定大小切割为全部切片，输出到outputDir中
+     * 每个工作线程只打开一次原始影像，直方图拉伸参数只计算一次，
+     * 以切片行为单位按原始影像的分块布局读取，相邻切片共享已解码的数据
+     * @param srcPath 原始影像路径
+     * @param size 切片大小
+     * @param outputDir 切片输出文件夹
+     * @param consistency 是否维持每行每列最后一张切片大小一致
+     * @param parallelism 并行切片的线程数
+     * @return 所有切片的像素范围、地理变换参数及估算的解码字节数
+     */
+    public static SliceManifest generateAllSlices(String srcPath, int size, String outputDir, boolean consistency, int parallelism){
+        gdal.AllRegister();
+        gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
+        Dataset dataset = DatasetPool.open(srcPath);
+        if (dataset == null)
+            throw new IllegalArgumentException("无法打开影像：" + srcPath);
+
+        int imageWidth = dataset.getRasterXSize();
+        int imageHeight = dataset.getRasterYSize();
+        BlockReadScheduler blockReadScheduler;
+        try {
+            float[] imageHistogramMinMax = calculateImageHistogramMinMax(dataset);
+            blockReadScheduler = new BlockReadScheduler(dataset,imageHistogramMinMax,size,consistency);
+        } finally {
+            dataset.delete();
         }
 
-        Driver pDriver = gdal.GetDriverByName("GTiff");
+        int columns = (int)Math.ceil((double) imageWidth / size);
+        int rows = (int)Math.ceil((double) imageHeight / size);
+        int sliceCount = columns * rows;
+        String baseName = FilenameUtils.getBaseName(srcPath);
+        File outputDirFile = new File(outputDir);
+        if (!outputDirFile.exists())
+            outputDirFile.mkdirs();
+
+        SliceInfo[] sliceInfos = new SliceInfo[sliceCount];
+        AtomicInteger nextRow = new AtomicInteger(0);
+        int workerCount = Math.max(1, Math.min(parallelism, rows));
+        ExecutorService executorService = Executors.newFixedThreadPool(workerCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int worker = 0; worker < workerCount; worker++) {
+            futures.add(executorService.submit(() -> {
+                Dataset workerDataset = DatasetPool.open(srcPath);
+                if (workerDataset == null)
+                    throw new IllegalStateException("无法打开影像：" + srcPath);
+                Driver pDriver = gdal.GetDriverByName("GTiff");
+                try {
+                    int row;
+                    while ((row = nextRow.getAndIncrement()) < rows) {
+                        for (SliceInfo sliceInfo : blockReadScheduler.sliceRow(workerDataset,pDriver,row,outputDir,baseName))
+                            sliceInfos[sliceInfo.getSliceNo()] = sliceInfo;
+                    }
+                } finally {
+                    workerDataset.delete();
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("影像：" + srcPath + " 切片被中断", e);
+        } catch (ExecutionException e) {
+            log.error("影像：{} 切片失败",srcPath);
+            throw new IllegalStateException("影像：" + srcPath + " 切片失败", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        SliceManifest sliceManifest = new SliceManifest();
+        sliceManifest.setRows(rows);
+        sliceManifest.setColumns(columns);
+        sliceManifest.setSliceSize(size);
+        sliceManifest.setSrcPath(srcPath);
+        sliceManifest.setImageWidth(imageWidth);
+        sliceManifest.setImageHeight(imageHeight);
+        sliceManifest.setConsistency(consistency);
+        sliceManifest.setSlices(Arrays.asList(sliceInfos));
+        return sliceManifest;
+    }
+
+    /**
+     * 将已打开影像中range范围内的数据写出为切片
+     * @param dataset 原始影像
+     * @param pDriver 输出驱动
+     * @param range 像素范围
+     * @param outputPath 输出路径
+     * @param imageHistogramMinMax 直方图拉伸参数
+     * @return 切片的地理变换参数，原始影像无地理信息时为null
+     */
+    private static double[] writeFixedSizeSlice(Dataset dataset, Driver pDriver, double[] range, String outputPath, float[] imageHistogramMinMax){
+        double[] sliceGeoTransform = sliceGeoTransform(dataset.GetGeoTransform(), range);
+
         int minX = (int)range[0], minY = (int)range[1], maxX = (int)range[2], maxY = (int)range[3];
         int sliceWidth = maxX - minX, sliceHeight = maxY - minY;
         File outputFile = new File(outputPath);
@@ -108,12 +309,24 @@ public class SliceGenerateUtil {
         Dataset pDSOut = pDriver.Create(outputPath, sliceWidth, sliceHeight, pDSOutBand, gdalconst.GDT_Byte);
         if (sliceGeoTransform !=null)
             pDSOut.SetGeoTransform(sliceGeoTransform);
-        sliceDataset(dataset,pDSOut,minX,minY,sliceWidth,sliceHeight,sliceWidth,sliceHeight);
-
-        dataset.delete();
+        sliceDataset(dataset,pDSOut,minX,minY,sliceWidth,sliceHeight,sliceWidth,sliceHeight,imageHistogramMinMax);
         pDSOut.delete();
 
-        return range;
+        return sliceGeoTransform;
+    }
+
+    /**
+     * 计算切片的地理变换参数
+     * @param srcGeoTransform 原始影像的地理变换参数
+     * @param range 切片像素范围
+     * @return 原始影像无地理变换参数时为null
+     */
+    public static double[] sliceGeoTransform(double[] srcGeoTransform, double[] range){
+        if (srcGeoTransform == null)
+            return null;
+        double sliceMinLon = srcGeoTransform[0] + range[0] * srcGeoTransform[1] + range[1] * srcGeoTransform[2];
+        double sliceMaxLat = srcGeoTransform[3] + range[0] * srcGeoTransform[4] + range[1] * srcGeoTransform[5];
+        return new double[]{sliceMinLon,srcGeoTransform[1],srcGeoTransform[2],sliceMaxLat,srcGeoTransform[4],srcGeoTransform[5]};
     }
 
     /**
@@ -160,34 +373,135 @@ public class SliceGenerateUtil {
 
 
     public static void sliceDataset(Dataset dataset, Dataset pDSOut, int minX, int minY, int offsetWidth, int offsetLength, int sliceWidth, int sliceHeight){
-        int[] bands = getRGBBand(dataset);
+        sliceDataset(dataset,pDSOut,minX,minY,offsetWidth,offsetLength,sliceWidth,sliceHeight,calculateImageHistogramMinMax(dataset));
+    }
+
+    /**
+     * 使用已计算好的直方图拉伸参数对影像进行切割
+     * @param imageHistogramMinMax calculateImageHistogramMinMax的计算结果
+     */
+    public static void sliceDataset(Dataset dataset, Dataset pDSOut, int minX, int minY, int offsetWidth, int offsetLength, int sliceWidth, int sliceHeight, float[] imageHistogramMinMax){
+        sliceDataset(dataset,getRGBBand(dataset),pDSOut,minX,minY,offsetWidth,offsetLength,sliceWidth,sliceHeight,imageHistogramMinMax);
+    }
+
+    /**
+     * 读取指定波段进行切割，用于带有额外波段（如重投影时添加的alpha波段）的数据集
+     * @param bands 依次写入输出各波段的源波段号
+     */
+    static void sliceDataset(Dataset dataset, int[] bands, Dataset pDSOut, int minX, int minY, int offsetWidth, int offsetLength, int sliceWidth, int sliceHeight, float[] imageHistogramMinMax){
+        long begin = System.nanoTime();
+        long bytesRead = 0;
         pDSOut.SetProjection(dataset.GetProjection());
-        float[] imageHistogramMinMax = calculateImageHistogramMinMax(dataset);
         for (int band = 1; band <= bands.length; band++) {
             Band pBandRead = dataset.GetRasterBand(bands[band-1]);
             Band pBandWrite = pDSOut.GetRasterBand(band);
 
-            if (pBandRead.GetRasterDataType() == 2 || pBandRead.GetRasterDataType() == 3){
-                int[] out = new int[sliceWidth*sliceHeight];
+            //输出远小于读取窗口时从最接近的概视图读取
+            int[] window = new int[]{minX,minY,offsetWidth,offsetLength};
+            Band pBandSource = selectOverview(pBandRead,window,sliceWidth,sliceHeight);
+            int dataType = pBandRead.GetRasterDataType();
+            ByteBuffer writeBuffer = StretchKernel.writeBuffer((long) sliceWidth*sliceHeight);
+            if (StretchKernel.supports(dataType)){
                 float minBandHist = imageHistogramMinMax[(band-1)*2];
                 float maxBandHist = imageHistogramMinMax[(band-1)*2 + 1];
-                pBandRead.ReadRaster(minX,minY,offsetWidth,offsetLength,sliceWidth,sliceHeight,
-                        gdalconst.GDT_Int32,out);
-
-                for (int index = 0; index < out.length ; index++){
-                    int temp = (int) ((out[index] - minBandHist) * 255 / (maxBandHist - minBandHist + 1));
-                    out[index] = temp;
-                }
-                pBandWrite.WriteRaster(0,0,sliceWidth,sliceHeight,out);
+                StretchKernel stretchKernel = StretchKernel.lookup(dataType,minBandHist,maxBandHist);
+                ByteBuffer readBuffer = StretchKernel.readBuffer((long) sliceWidth*sliceHeight*stretchKernel.getPixelBytes());
+                pBandSource.ReadRaster_Direct(window[0],window[1],window[2],window[3],sliceWidth,sliceHeight,
+                        dataType,readBuffer);
+                bytesRead += (long) sliceWidth*sliceHeight*stretchKernel.getPixelBytes();
+                stretchKernel.apply(readBuffer,0,sliceWidth,sliceWidth,sliceHeight,writeBuffer);
             }else {
-                byte[] out = new byte[sliceWidth*sliceHeight];
-                pBandRead.ReadRaster(minX,minY,offsetWidth,offsetLength,sliceWidth,sliceHeight,
-                        gdalconst.GDT_Byte,out);
-                pBandWrite.WriteRaster(0,0,sliceWidth,sliceHeight,out);
+                pBandSource.ReadRaster_Direct(window[0],window[1],window[2],window[3],sliceWidth,sliceHeight,
+                        gdalconst.GDT_Byte,writeBuffer);
+                bytesRead += (long) sliceWidth*sliceHeight;
             }
+            pBandWrite.WriteRaster_Direct(0,0,sliceWidth,sliceHeight,sliceWidth,sliceHeight,gdalconst.GDT_Byte,writeBuffer);
             pBandRead.delete();
             pBandWrite.delete();
         }
+        Metrics.increment(Metrics.SLICE_BYTES_READ, bytesRead);
+        Metrics.recordSince(Metrics.SLICE, begin);
+    }
+
+    /**
+     * 为影像创建概视图（金字塔），已有概视图时不再创建
+     * 按2倍逐级抽稀，直到最长边小于256像素
+     * @param srcPath 影像路径
+     * @param external true写入外部.ovr文件，false写入影像内部
+     * @return 是否创建成功
+     */
+    public static boolean buildOverviews(String srcPath, boolean external){
+        if (ArchiveRasterAccess.isVsiPath(srcPath)){
+            log.warn("压缩包内的影像不能创建概视图：{}",srcPath);
+            return false;
+        }
+        gdal.AllRegister();
+        Dataset dataset = DatasetPool.open(srcPath, external ? gdalconst.GA_ReadOnly : gdalconst.GA_Update);
+        if (dataset == null){
+            log.error("创建概视图失败，无法打开影像：{}",srcPath);
+            return false;
+        }
+
+        try {
+            if (dataset.GetRasterBand(1).GetOverviewCount() > 0)
+                return true;
+            List<Integer> levels = new ArrayList<>();
+            int maxLength = Math.max(dataset.getRasterXSize(), dataset.getRasterYSize());
+            for (int level = 2; maxLength / level >= 256; level *= 2)
+                levels.add(level);
+            if (levels.isEmpty())
+                return true;
+
+            int[] overviewList = new int[levels.size()];
+            for (int index = 0; index < overviewList.length; index++)
+                overviewList[index] = levels.get(index);
+            log.info("开始为影像：{} 创建概视图，层级：{}",srcPath,levels);
+            return dataset.BuildOverviews("AVERAGE", overviewList) == gdalconst.CE_None;
+        } finally {
+            dataset.delete();
+        }
+    }
+
+    /**
+     * 选择与输出分辨率最接近的概视图，并将读取窗口换算到概视图的像素坐标
+     * 只选择分辨率不低于输出分辨率的概视图，没有合适的概视图时返回原波段
+     * @param band 原始波段
+     * @param window 读取窗口 minX,minY,width,height，会被换算为概视图坐标
+     * @param outputWidth 输出宽度
+     * @param outputHeight 输出高度
+     * @return
+     */
+    public static Band selectOverview(Band band, int[] window, int outputWidth, int outputHeight){
+        int overviewCount = band.GetOverviewCount();
+        double ratio = Math.min((double) window[2] / outputWidth, (double) window[3] / outputHeight);
+        if (overviewCount == 0 || ratio < 2)
+            return band;
+
+        Band selectedOverview = null;
+        double selectedFactor = 1;
+        for (int index = 0; index < overviewCount; index++) {
+            Band overview = band.GetOverview(index);
+            if (overview == null)
+                continue;
+            double factor = (double) band.getXSize() / overview.getXSize();
+            if (factor <= ratio && factor > selectedFactor) {
+                selectedFactor = factor;
+                selectedOverview = overview;
+            }
+        }
+        if (selectedOverview == null)
+            return band;
+
+        double yFactor = (double) band.getYSize() / selectedOverview.getYSize();
+        int overviewMinX = (int) Math.floor(window[0] / selectedFactor);
+        int overviewMinY = (int) Math.floor(window[1] / yFactor);
+        int overviewMaxX = Math.min(selectedOverview.getXSize(), (int) Math.ceil((window[0] + window[2]) / selectedFactor));
+        int overviewMaxY = Math.min(selectedOverview.getYSize(), (int) Math.ceil((window[1] + window[3]) / yFactor));
+        window[0] = overviewMinX;
+        window[1] = overviewMinY;
+        window[2] = Math.max(1, overviewMaxX - overviewMinX);
+        window[3] = Math.max(1, overviewMaxY - overviewMinY);
+        return selectedOverview;
     }
 
     /**
@@ -227,34 +541,79 @@ public class SliceGenerateUtil {
 
     public static int[] getBandHist(String imagePath, int bandNo){
         gdal.AllRegister();
+        String cacheKey = StretchParamCache.cacheKey(imagePath, new int[]{bandNo});
+        int[] bandHist = StretchParamCache.getHistogram(cacheKey);
+        if (bandHist != null)
+            return bandHist;
+
         int minHistogram = 1;
-        Dataset dataset = gdal.Open(imagePath);
+        Dataset dataset = DatasetPool.open(imagePath);
         int maxHistogram = dataset.GetRasterBand(1).GetRasterDataType() == 2 ? 65535 : 256;
-        int[] bandHist = new int[maxHistogram];
+        bandHist = new int[maxHistogram];
 
         Band pBandRead = dataset.GetRasterBand(bandNo);
         pBandRead.GetHistogram(minHistogram,maxHistogram, bandHist, false, true);
+        dataset.delete();
+        StretchParamCache.putHistogram(cacheKey, bandHist);
         return bandHist;
     }
 
     /**
-     * 计算直方图最大最小值
+     * 计算直方图最大最小值，结果按影像缓存在StretchParamCache中
      * @param dataset
      * @return
      */
     public static float[] calculateImageHistogramMinMax(Dataset dataset){
+        int[] bands = getRGBBand(dataset);
+        String imagePath = dataset.GetDescription();
+        String cacheKey = StretchParamCache.cacheKey(imagePath, bands);
+        float[] imageHistogramMinMax = StretchParamCache.getMinMax(imagePath, cacheKey);
+        if (imageHistogramMinMax == null) {
+            long begin = System.nanoTime();
+            imageHistogramMinMax = calculateImageHistogramMinMax(dataset, bands);
+            Metrics.recordSince(Metrics.HISTOGRAM, begin);
+            StretchParamCache.putMinMax(imagePath, cacheKey, imageHistogramMinMax);
+        } else {
+            Metrics.increment(Metrics.HISTOGRAM_CACHE_HIT, 1);
+        }
+        return imageHistogramMinMax;
+    }
+
+    /**
+     * 扫描全图直方图计算各波段的最大最小值
+     * @param dataset
+     * @param bands 参与计算的波段
+     * @return
+     */
+    private static float[] calculateImageHistogramMinMax(Dataset dataset, int[] bands){
         int minHistogram = 1;
         int maxHistogram = 65536;
-        int[] bands = getRGBBand(dataset);
         float[] imageHistogramMinMax = new float[bands.length * 2]; //用一个数组存储不同波段内的大小值
-        int[] bandHist = new int[maxHistogram];
-        float[] histR = new float[maxHistogram];
+        int[] bandHist = null;
+        float[] histR = null;
         for(int band = 1; band <= bands.length; ++band)
         {
+            Band pBandRead = dataset.GetRasterBand(bands[band-1]);
+            int dataType = pBandRead.GetRasterDataType();
+            //8位影像不做拉伸
+            if (!StretchKernel.supports(dataType)){
+                imageHistogramMinMax[(band-1)*2] = 0;
+                imageHistogramMinMax[(band-1)*2 + 1] = 255;
+                continue;
+            }
+            //32位整型及浮点影像按实际取值范围统计直方图
+            if (!StretchKernel.isLookupTableType(dataType)){
+                calculateBandRangeMinMax(pBandRead,imageHistogramMinMax,(band-1)*2);
+                continue;
+            }
+
+            if (bandHist == null){
+                bandHist = new int[maxHistogram];
+                histR = new float[maxHistogram];
+            }
             float sumMin = 0;
             float sumMax = 0;
             float total = 0.0f;
-            Band pBandRead = dataset.GetRasterBand(bands[band-1]);
             pBandRead.GetHistogram(minHistogram,maxHistogram, bandHist, false, true);
             for (int i = 0; i < maxHistogram; ++i)
             {
@@ -288,6 +647,52 @@ public class SliceGenerateUtil {
         return imageHistogramMinMax;
     }
 
+    /**
+     * 计算32位整型及浮点波段的拉伸参数
+     * 先求波段的最大最小值，再在该范围内统计直方图，去掉前2%和后1%的像素
+     * 最大最小值和直方图均允许近似计算，有概视图时从概视图统计，不读取全分辨率数据
+     * @param pBandRead 波段
+     * @param imageHistogramMinMax 结果数组
+     * @param offset 当前波段在结果数组中的位置
+     */
+    private static void calculateBandRangeMinMax(Band pBandRead, float[] imageHistogramMinMax, int offset){
+        int buckets = 4096;
+        double[] bandMinMax = new double[2];
+        pBandRead.ComputeRasterMinMax(bandMinMax, 1);
+        double minValue = bandMinMax[0];
+        double maxValue = bandMinMax[1];
+        imageHistogramMinMax[offset] = (float) minValue;
+        imageHistogramMinMax[offset + 1] = (float) maxValue;
+        if (!(maxValue > minValue))
+            return;
+
+        int[] bandHist = new int[buckets];
+        pBandRead.GetHistogram(minValue, maxValue, bandHist, false, true);
+        long total = 0;
+        for (int count : bandHist)
+            total += count;
+        if (total == 0)
+            return;
+
+        double bucketWidth = (maxValue - minValue) / buckets;
+        long sumMin = 0;
+        for (int index = 0; index < buckets; index++) {
+            sumMin += bandHist[index];
+            if (sumMin >= total * 0.02) {
+                imageHistogramMinMax[offset] = (float) (minValue + index * bucketWidth);
+                break;
+            }
+        }
+        long sumMax = 0;
+        for (int index = buckets - 1; index >= 0; index--) {
+            sumMax += bandHist[index];
+            if (sumMax >= total * 0.01) {
+                imageHistogramMinMax[offset + 1] = (float) (minValue + (index + 1) * bucketWidth);
+                break;
+            }
+        }
+    }
+
     public static void main(String[] args) {
         gdal.AllRegister();
         String na = "tef.tf";
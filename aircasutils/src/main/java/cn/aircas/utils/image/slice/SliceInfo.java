@@ -0,0 +1,16 @@
+package cn.aircas.utils.image.slice;
+
+import lombok.Data;
+
+/**
+ * 单张切片的信息
+ */
+@Data
+public class SliceInfo {
+    private int sliceNo;
+    //按原始影像分块布局估算的新解码字节数，与同一行前面切片共享的块不计入，不是GDAL实际读取的字节数
+    private long estimatedBytesDecoded;
+    private double[] range;
+    private String outputPath;
+    private double[] geoTransform;
+}
@@ -0,0 +1,20 @@
+package cn.aircas.utils.image.slice;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 整幅影像批量切片的结果清单
+ */
+@Data
+public class SliceManifest {
+    private int rows;
+    private int columns;
+    private int sliceSize;
+    private String srcPath;
+    private int imageWidth;
+    private int imageHeight;
+    private boolean consistency;
+    private List<SliceInfo> slices;
+}
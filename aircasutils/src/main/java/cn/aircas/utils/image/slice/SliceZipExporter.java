@@ -0,0 +1,160 @@
+package cn.aircas.utils.image.slice;
+
+import cn.aircas.utils.image.DatasetPool;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconst;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按固定大小切割整幅影像，切片在内存中编码后直接写入zip输出流，不产生临时文件
+ * 多个线程并行编码切片，调用线程按切片号顺序写入压缩包，编码与写出同时进行，第一张切片编码完成后即开始输出；
+ * 已编码未写出的切片数量有上限，输出流较慢时编码线程等待，内存占用不随切片总数增长。
+ * 压缩包的写出见SliceZipWriter
+ * @author vanishrain
+ */
+@Slf4j
+public class SliceZipExporter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //每个编码线程最多领先写出的切片数
+    private static final int WINDOW_PER_WORKER = 4;
+
+    static {
+        gdal.AllRegister();
+        gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
+    }
+
+    /**
+     * 切割整幅影像并以zip格式写入输出流，压缩包内的文件名为 影像名_切片号.扩展名
+     * @param srcPath 影像路径
+     * @param size 切片大小
+     * @param consistency 是否维持每行每列最后一张切片大小一致
+     * @param format 编码格式 JPEG PNG GTiff
+     * @param outputStream 输出流，如http响应流，完成后不会被关闭
+     * @param parallelism 编码线程数
+     * @return 切片数量
+     * @throws IOException 影像无法打开、切片编码失败或输出流写入失败
+     */
+    public static int export(String srcPath, int size, boolean consistency, String format, OutputStream outputStream,
+                             int parallelism) throws IOException {
+        SliceEncoder.SliceFormat sliceFormat = SliceEncoder.SliceFormat.of(format);
+        Dataset dataset = DatasetPool.open(srcPath);
+        if (dataset == null)
+            throw new IOException("无法打开影像：" + srcPath);
+        int imageWidth = dataset.getRasterXSize();
+        int imageHeight = dataset.getRasterYSize();
+        float[] imageHistogramMinMax;
+        try {
+            imageHistogramMinMax = SliceGenerateUtil.calculateImageHistogramMinMax(dataset);
+        } finally {
+            dataset.delete();
+        }
+
+        int columns = (int)Math.ceil((double) imageWidth / size);
+        int rows = (int)Math.ceil((double) imageHeight / size);
+        int sliceCount = columns * rows;
+        String baseName = FilenameUtils.getBaseName(srcPath);
+
+        List<CompletableFuture<SliceZipWriter.EncodedSlice>> encodedSlices = new ArrayList<>(sliceCount);
+        for (int sliceNo = 0; sliceNo < sliceCount; sliceNo++)
+            encodedSlices.add(new CompletableFuture<>());
+        int workerCount = Math.max(1, Math.min(parallelism, sliceCount));
+        Semaphore window = new Semaphore(workerCount * WINDOW_PER_WORKER);
+        AtomicInteger nextSlice = new AtomicInteger(0);
+        AtomicBoolean stopped = new AtomicBoolean();
+        ExecutorService executorService = Executors.newFixedThreadPool(workerCount);
+        for (int worker = 0; worker < workerCount; worker++) {
+            executorService.execute(() -> encodeSlices(srcPath, imageWidth, imageHeight, size, consistency, sliceFormat,
+                    imageHistogramMinMax, encodedSlices, nextSlice, window, stopped));
+        }
+        executorService.shutdown();
+
+        long begin = System.nanoTime();
+        try (SliceZipWriter sliceZipWriter = new SliceZipWriter(outputStream)) {
+            for (int sliceNo = 0; sliceNo < sliceCount; sliceNo++) {
+                SliceZipWriter.EncodedSlice encodedSlice = await(encodedSlices.get(sliceNo), srcPath);
+                encodedSlices.set(sliceNo, null);
+                sliceZipWriter.write(baseName + "_" + sliceNo + "." + sliceFormat.getExtension(), sliceFormat, encodedSlice);
+                window.release();
+            }
+        } finally {
+            stopped.set(true);
+            executorService.shutdownNow();
+        }
+        log.info("影像：{} 切片导出完成，切片数：{}，耗时：{}ms", srcPath, sliceCount, (System.nanoTime() - begin) / 1000000);
+        return sliceCount;
+    }
+
+    /**
+     * 编码线程，每个线程打开一次影像，按切片号依次领取切片，领先写出的切片达到上限时等待
+     */
+    private static void encodeSlices(String srcPath, int imageWidth, int imageHeight, int size, boolean consistency,
+                                     SliceEncoder.SliceFormat sliceFormat, float[] imageHistogramMinMax,
+                                     List<CompletableFuture<SliceZipWriter.EncodedSlice>> encodedSlices, AtomicInteger nextSlice,
+                                     Semaphore window, AtomicBoolean stopped){
+        Dataset workerDataset = null;
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(BUFFER_SIZE);
+        try {
+            workerDataset = DatasetPool.open(srcPath);
+            while (!stopped.get()) {
+                window.acquire();
+                int sliceNo = nextSlice.getAndIncrement();
+                if (sliceNo >= encodedSlices.size())
+                    return;
+                CompletableFuture<SliceZipWriter.EncodedSlice> future = encodedSlices.get(sliceNo);
+                try {
+                    if (workerDataset == null)
+                        throw new IOException("无法打开影像：" + srcPath);
+                    double[] range = SliceGenerateUtil.sliceNo2PixelRange(imageWidth, imageHeight, sliceNo, size, consistency);
+                    byteArrayOutputStream.reset();
+                    SliceGenerateUtil.encodeSlice(workerDataset, range, sliceFormat, imageHistogramMinMax, byteArrayOutputStream);
+                    future.complete(new SliceZipWriter.EncodedSlice(byteArrayOutputStream.toByteArray()));
+                } catch (Throwable e) {
+                    //包括OutOfMemoryError等错误，领取的切片必须完成，否则写出线程会一直等待
+                    stopped.set(true);
+                    future.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            //领取切片之前出错（如打开影像时的本地库错误），使下一张切片失败，写出线程在该切片处结束
+            stopped.set(true);
+            int sliceNo = nextSlice.getAndIncrement();
+            if (sliceNo < encodedSlices.size())
+                encodedSlices.get(sliceNo).completeExceptionally(e);
+        } finally {
+            if (workerDataset != null)
+                workerDataset.delete();
+        }
+    }
+
+    private static SliceZipWriter.EncodedSlice await(CompletableFuture<SliceZipWriter.EncodedSlice> future, String srcPath) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("影像：" + srcPath + " 切片导出被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            log.error("影像：{} 切片失败", srcPath, cause);
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("影像：" + srcPath + " 切片失败", cause);
+        }
+    }
+}
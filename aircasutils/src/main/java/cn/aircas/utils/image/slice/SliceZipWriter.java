@@ -0,0 +1,76 @@
+package cn.aircas.utils.image.slice;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 按顺序将编码后的切片写入zip输出流
+ * JPEG、PNG切片已经压缩，直接存储；GTiff切片使用deflate压缩。
+ * 关闭时结束压缩包并释放压缩器，调用方的输出流只刷新不关闭
+ * @author vanishrain
+ */
+class SliceZipWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ZipOutputStream zipOutputStream;
+
+    /**
+     * @param outputStream 调用方的输出流，不会被关闭
+     */
+    SliceZipWriter(OutputStream outputStream){
+        this.zipOutputStream = new ZipOutputStream(new BufferedOutputStream(new CloseShieldOutputStream(outputStream), BUFFER_SIZE));
+    }
+
+    /**
+     * 写入一张切片
+     * @param entryName 压缩包内的文件名
+     * @param sliceFormat 切片格式，决定直接存储还是压缩
+     * @param encodedSlice 编码后的切片
+     * @throws IOException
+     */
+    void write(String entryName, SliceEncoder.SliceFormat sliceFormat, EncodedSlice encodedSlice) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(entryName);
+        //直接存储的文件需要在写入前给出大小和校验值
+        if (sliceFormat != SliceEncoder.SliceFormat.GTIFF) {
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(encodedSlice.bytes.length);
+            zipEntry.setCompressedSize(encodedSlice.bytes.length);
+            zipEntry.setCrc(encodedSlice.crc);
+        }
+        zipOutputStream.putNextEntry(zipEntry);
+        zipOutputStream.write(encodedSlice.bytes);
+        zipOutputStream.closeEntry();
+    }
+
+    /**
+     * 写出压缩包目录并刷新到调用方的输出流
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        zipOutputStream.close();
+    }
+
+    /**
+     * 编码后的切片，校验值在编码线程中计算
+     */
+    static class EncodedSlice {
+        private final byte[] bytes;
+        private final long crc;
+
+        EncodedSlice(byte[] bytes){
+            this.bytes = bytes;
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes, 0, bytes.length);
+            this.crc = crc32.getValue();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package cn.aircas.utils.image.slice;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 影像转8位的拉伸核
+ * 16位影像根据直方图最大最小值预先计算65536项的查找表，32位整型及浮点影像按原始位宽读取后线性拉伸，
+ * 读写使用线程内复用的直接缓冲区
+ * @author vanishrain
+ */
+public class StretchKernel {
+
+    private static final int MAX_CACHED_KERNELS = 64;
+
+    //gdal数据类型编码，与gdalconst一致；使用常量使拉伸计算不依赖gdal本地库
+    static final int GDT_UINT16 = 2;
+    static final int GDT_INT16 = 3;
+    static final int GDT_UINT32 = 4;
+    static final int GDT_INT32 = 5;
+    static final int GDT_FLOAT32 = 6;
+    static final int GDT_FLOAT64 = 7;
+
+    private static final Map<String, StretchKernel> KERNEL_CACHE = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = new ThreadLocal<>();
+
+    private static final ThreadLocal<ByteBuffer> WRITE_BUFFER = new ThreadLocal<>();
+
+    private final int dataType;
+
+    private final int pixelBytes;
+
+    private final byte[] lookupTable;
+
+    private final double minValue;
+
+    private final double scale;
+
+    private StretchKernel(int dataType, float minBandHist, float maxBandHist){
+        this.dataType = dataType;
+        if (isLookupTableType(dataType)) {
+            this.pixelBytes = 2;
+            this.minValue = minBandHist;
+            this.scale = 0;
+            this.lookupTable = new byte[65536];
+            for (int index = 0; index < lookupTable.length; index++) {
+                int value = dataType == GDT_INT16 ? (short) index : index;
+                int temp = (int) ((value - minBandHist) * 255 / (maxBandHist - minBandHist + 1));
+                lookupTable[index] = (byte) Math.max(0, Math.min(255, temp));
+            }
+        } else {
+            this.pixelBytes = dataType == GDT_FLOAT64 ? 8 : 4;
+            this.minValue = minBandHist;
+            this.scale = maxBandHist > minBandHist ? 255.0 / ((double) maxBandHist - minBandHist) : 0;
+            this.lookupTable = null;
+        }
+    }
+
+    /**
+     * 是否为需要拉伸的数据类型，8位及复数类型不在此列
+     * @param dataType gdal数据类型
+     * @return
+     */
+    public static boolean supports(int dataType){
+        return isLookupTableType(dataType) || dataType == GDT_UINT32 || dataType == GDT_INT32
+                || dataType == GDT_FLOAT32 || dataType == GDT_FLOAT64;
+    }
+
+    /**
+     * 是否为可以使用查找表拉伸的16位数据类型
+     * @param dataType gdal数据类型
+     * @return
+     */
+    public static boolean isLookupTableType(int dataType){
+        return dataType == GDT_UINT16 || dataType == GDT_INT16;
+    }
+
+    /**
+     * 获取拉伸核，相同数据类型和拉伸参数的查找表只计算一次
+     * @param dataType gdal数据类型
+     * @param minBandHist 直方图最小值
+     * @param maxBandHist 直方图最大值
+     * @return
+     */
+    public static StretchKernel lookup(int dataType, float minBandHist, float maxBandHist){
+        if (!supports(dataType))
+            throw new IllegalArgumentException("不支持的数据类型：" + dataType);
+        String key = dataType + "|" + Float.floatToIntBits(minBandHist) + "|" + Float.floatToIntBits(maxBandHist);
+        StretchKernel stretchKernel = KERNEL_CACHE.get(key);
+        if (stretchKernel == null) {
+            if (KERNEL_CACHE.size() >= MAX_CACHED_KERNELS)
+                KERNEL_CACHE.clear();
+            stretchKernel = new StretchKernel(dataType, minBandHist, maxBandHist);
+            KERNEL_CACHE.put(key, stretchKernel);
+        }
+        return stretchKernel;
+    }
+
+    /**
+     * 对源缓冲区中的一个窗口进行拉伸，结果按行连续写入目标缓冲区
+     * @param src 源数据，本机字节序
+     * @param srcOffset 窗口左上角在源数据中的像素偏移
+     * @param srcRowStride 源数据每行的像素数
+     * @param width 窗口宽度
+     * @param height 窗口高度
+     * @param dst 输出的8位数据
+     */
+    public void apply(ByteBuffer src, int srcOffset, int srcRowStride, int width, int height, ByteBuffer dst){
+        if (lookupTable != null) {
+            applyLookupTable(src, srcOffset, srcRowStride, width, height, dst);
+            return;
+        }
+        int dstIndex = 0;
+        for (int row = 0; row < height; row++) {
+            int srcIndex = (srcOffset + row * srcRowStride) * pixelBytes;
+            for (int column = 0; column < width; column++, srcIndex += pixelBytes) {
+                double value;
+                if (dataType == GDT_FLOAT32)
+                    value = src.getFloat(srcIndex);
+                else if (dataType == GDT_FLOAT64)
+                    value = src.getDouble(srcIndex);
+                else if (dataType == GDT_UINT32)
+                    value = src.getInt(srcIndex) & 0xFFFFFFFFL;
+                else
+                    value = src.getInt(srcIndex);
+                dst.put(dstIndex++, linearStretch(value));
+            }
+        }
+    }
+
+    private void applyLookupTable(ByteBuffer src, int srcOffset, int srcRowStride, int width, int height, ByteBuffer dst){
+        byte[] table = lookupTable;
+        int dstIndex = 0;
+        for (int row = 0; row < height; row++) {
+            int srcIndex = (srcOffset + row * srcRowStride) << 1;
+            for (int column = 0; column < width; column++, srcIndex += 2) {
+                dst.put(dstIndex++, table[src.getShort(srcIndex) & 0xFFFF]);
+            }
+        }
+    }
+
+    private byte linearStretch(double value){
+        //NaN 也落入此分支
+        if (!(value > minValue))
+            return 0;
+        double temp = (value - minValue) * scale;
+        return temp >= 255 ? (byte) 255 : (byte) (int) temp;
+    }
+
+    public int getDataType(){
+        return dataType;
+    }
+
+    /**
+     * 原始数据每个像素的字节数
+     * @return
+     */
+    public int getPixelBytes(){
+        return pixelBytes;
+    }
+
+    /**
+     * 获取当前线程复用的读缓冲区
+     * @param capacity 所需字节数
+     * @return 本机字节序的直接缓冲区
+     */
+    public static ByteBuffer readBuffer(long capacity){
+        return threadBuffer(READ_BUFFER, capacity);
+    }
+
+    /**
+     * 获取当前线程复用的写缓冲区
+     * @param capacity 所需字节数
+     * @return 本机字节序的直接缓冲区
+     */
+    public static ByteBuffer writeBuffer(long capacity){
+        return threadBuffer(WRITE_BUFFER, capacity);
+    }
+
+    private static ByteBuffer threadBuffer(ThreadLocal<ByteBuffer> threadLocal, long capacity){
+        checkCapacity(capacity);
+        ByteBuffer buffer = threadLocal.get();
+        if (buffer == null || buffer.capacity() < capacity) {
+            //按1.5倍扩容，不超过单个缓冲区的上限
+            long newCapacity = buffer == null ? capacity : Math.min(Integer.MAX_VALUE, Math.max(capacity, buffer.capacity() + (long) (buffer.capacity() >> 1)));
+            buffer = ByteBuffer.allocateDirect((int) newCapacity).order(ByteOrder.nativeOrder());
+            threadLocal.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 检查缓冲区大小，单个缓冲区不能超过Integer.MAX_VALUE字节
+     * @param capacity 所需字节数
+     */
+    static void checkCapacity(long capacity){
+        if (capacity < 0 || capacity > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("切片缓冲区过大：" + capacity + "字节，请减小切片大小");
+    }
+}
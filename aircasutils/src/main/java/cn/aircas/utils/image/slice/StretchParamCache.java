@@ -0,0 +1,212 @@
+package cn.aircas.utils.image.slice;
+
+import cn.aircas.utils.image.ArchiveRasterAccess;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 直方图拉伸参数缓存
+ * 以计算版本、影像路径、文件大小、修改时间和所选波段作为key，内存中按LRU淘汰，可选在影像旁写入.stretch文件持久化
+ * @author vanishrain
+ */
+@Slf4j
+public class StretchParamCache {
+
+    private static final String SIDECAR_EXTENSION = ".stretch";
+
+    //拉伸参数的计算版本，写入key及.stretch文件的首行，修改直方图统计或截断方式时递增，旧版本的参数随之失效
+    private static final int STRETCH_VERSION = 1;
+
+    private static int maxEntries = 256;
+
+    private static int maxHistogramEntries = 32;
+
+    private static volatile boolean sidecarEnabled = false;
+
+    private static final Map<String, float[]> MIN_MAX_CACHE = new LinkedHashMap<String, float[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private static final Map<String, int[]> HISTOGRAM_CACHE = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+            return size() > maxHistogramEntries;
+        }
+    };
+
+    /**
+     * 设置内存中缓存的影像数量
+     * @param entries 拉伸参数缓存数量
+     * @param histogramEntries 单波段直方图缓存数量
+     */
+    public static synchronized void setMaxEntries(int entries, int histogramEntries){
+        maxEntries = entries;
+        maxHistogramEntries = histogramEntries;
+    }
+
+    /**
+     * 是否在影像旁写入.stretch文件，服务重启后可直接读取
+     * @param enabled
+     */
+    public static void setSidecarEnabled(boolean enabled){
+        sidecarEnabled = enabled;
+    }
+
+    /**
+     * 生成缓存key，影像文件不存在（如MEM数据集）时返回null，不进行缓存
+     * @param imagePath 影像路径
+     * @param bands 参与计算的波段
+     * @return
+     */
+    public static String cacheKey(String imagePath, int[] bands){
+        if (imagePath == null || imagePath.isEmpty())
+            return null;
+        //压缩包内的影像以压缩包的大小和修改时间判断是否失效
+        File imageFile = ArchiveRasterAccess.physicalFile(imagePath);
+        if (imageFile == null || !imageFile.isFile())
+            return null;
+        String path = ArchiveRasterAccess.isVsiPath(imagePath) ? imagePath : imageFile.getAbsolutePath();
+        return "v" + STRETCH_VERSION + "|" + path + "|" + imageFile.length() + "|" + imageFile.lastModified() + "|" + Arrays.toString(bands);
+    }
+
+    /**
+     * 获取拉伸参数，先查内存再查.stretch文件
+     * @param imagePath 影像路径
+     * @param cacheKey cacheKey的返回值
+     * @return 未命中时返回null
+     */
+    public static float[] getMinMax(String imagePath, String cacheKey){
+        if (cacheKey == null)
+            return null;
+        float[] imageHistogramMinMax;
+        synchronized (StretchParamCache.class) {
+            imageHistogramMinMax = MIN_MAX_CACHE.get(cacheKey);
+        }
+        if (imageHistogramMinMax == null && sidecarEnabled && !ArchiveRasterAccess.isVsiPath(imagePath)) {
+            imageHistogramMinMax = readSidecar(imagePath, cacheKey);
+            if (imageHistogramMinMax != null) {
+                synchronized (StretchParamCache.class) {
+                    MIN_MAX_CACHE.put(cacheKey, imageHistogramMinMax);
+                }
+            }
+        }
+        return imageHistogramMinMax == null ? null : imageHistogramMinMax.clone();
+    }
+
+    /**
+     * 保存拉伸参数
+     * @param imagePath 影像路径
+     * @param cacheKey cacheKey的返回值
+     * @param imageHistogramMinMax 拉伸参数
+     */
+    public static void putMinMax(String imagePath, String cacheKey, float[] imageHistogramMinMax){
+        if (cacheKey == null)
+            return;
+        synchronized (StretchParamCache.class) {
+            MIN_MAX_CACHE.put(cacheKey, imageHistogramMinMax.clone());
+        }
+        //压缩包内的影像旁不能写文件
+        if (sidecarEnabled && !ArchiveRasterAccess.isVsiPath(imagePath))
+            writeSidecar(imagePath, cacheKey, imageHistogramMinMax);
+    }
+
+    /**
+     * 获取单波段直方图
+     * @param cacheKey cacheKey的返回值
+     * @return 未命中时返回null
+     */
+    public static int[] getHistogram(String cacheKey){
+        if (cacheKey == null)
+            return null;
+        int[] bandHist;
+        synchronized (StretchParamCache.class) {
+            bandHist = HISTOGRAM_CACHE.get(cacheKey);
+        }
+        return bandHist == null ? null : bandHist.clone();
+    }
+
+    /**
+     * 保存单波段直方图
+     * @param cacheKey cacheKey的返回值
+     * @param bandHist 直方图
+     */
+    public static void putHistogram(String cacheKey, int[] bandHist){
+        if (cacheKey == null)
+            return;
+        synchronized (StretchParamCache.class) {
+            HISTOGRAM_CACHE.put(cacheKey, bandHist.clone());
+        }
+    }
+
+    /**
+     * 清空内存缓存
+     */
+    public static synchronized void clear(){
+        MIN_MAX_CACHE.clear();
+        HISTOGRAM_CACHE.clear();
+    }
+
+    /**
+     * 读取.stretch文件，文件中的key与当前key不一致时（影像已被修改或由旧版本计算）视为失效
+     */
+    private static float[] readSidecar(String imagePath, String cacheKey){
+        File sidecarFile = new File(imagePath + SIDECAR_EXTENSION);
+        if (!sidecarFile.isFile())
+            return null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sidecarFile), StandardCharsets.UTF_8))) {
+            if (!cacheKey.equals(reader.readLine()))
+                return null;
+            String line = reader.readLine();
+            if (line == null || line.trim().isEmpty())
+                return null;
+            String[] values = line.trim().split(",");
+            float[] imageHistogramMinMax = new float[values.length];
+            for (int index = 0; index < values.length; index++)
+                imageHistogramMinMax[index] = Float.parseFloat(values[index]);
+            return imageHistogramMinMax;
+        } catch (IOException | NumberFormatException e) {
+            log.warn("读取拉伸参数文件：{} 失败",sidecarFile.getAbsolutePath());
+            return null;
+        }
+    }
+
+    /**
+     * 写入.stretch文件，先写临时文件再重命名，避免并发读到不完整内容
+     */
+    private static void writeSidecar(String imagePath, String cacheKey, float[] imageHistogramMinMax){
+        File sidecarFile = new File(imagePath + SIDECAR_EXTENSION);
+        File tempFile = new File(sidecarFile.getAbsolutePath() + "." + Thread.currentThread().getId() + ".tmp");
+        StringBuilder values = new StringBuilder();
+        for (int index = 0; index < imageHistogramMinMax.length; index++) {
+            if (index > 0)
+                values.append(",");
+            values.append(imageHistogramMinMax[index]);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            writer.write(cacheKey);
+            writer.write("\n");
+            writer.write(values.toString());
+            writer.write("\n");
+        } catch (IOException e) {
+            log.warn("写入拉伸参数文件：{} 失败",sidecarFile.getAbsolutePath());
+            tempFile.delete();
+            return;
+        }
+        try {
+            Files.move(tempFile.toPath(), sidecarFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("写入拉伸参数文件：{} 失败",sidecarFile.getAbsolutePath());
+            tempFile.delete();
+        }
+    }
+}
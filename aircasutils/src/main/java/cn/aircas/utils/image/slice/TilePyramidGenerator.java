@@ -0,0 +1,401 @@
+package cn.aircas.utils.image.slice;
+
+import cn.aircas.utils.file.FileUtils;
+import cn.aircas.utils.image.DatasetPool;
+import cn.aircas.utils.image.geo.GeoUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.Driver;
+import org.gdal.gdal.WarpOptions;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconst;
+import org.gdal.osr.SpatialReference;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * web地图瓦片金字塔生成工具
+ * 将影像重投影到EPSG:3857，按z/x/y目录结构输出XYZ或TMS瓦片，
+ * 只有最高层级从原始影像读取，其余层级由下一层级的瓦片合并抽稀得到
+ * @author vanishrain
+ */
+@Slf4j
+public class TilePyramidGenerator {
+
+    public static final int TILE_SIZE = 256;
+
+    //web墨卡托坐标原点到边界的距离
+    private static final double ORIGIN_SHIFT = 20037508.342789244;
+
+    private static final int MAX_ZOOM = 22;
+
+    static {
+        gdal.AllRegister();
+        gdal.SetConfigOption("GDAL_PAM_ENABLED","FALSE");
+    }
+
+    /**
+     * 根据影像分辨率自动计算层级范围并生成瓦片
+     * @param srcPath 影像路径
+     * @param outputDir 瓦片输出文件夹
+     * @param format 瓦片格式 PNG JPEG WEBP
+     * @param tms true为TMS行号（自下而上），false为XYZ行号（自上而下）
+     * @param parallelism 并行线程数
+     * @return 生成的瓦片数量
+     */
+    public static int generateTiles(String srcPath, String outputDir, String format, boolean tms, int parallelism){
+        return generateTiles(srcPath, outputDir, -1, -1, format, tms, parallelism);
+    }
+
+    /**
+     * 生成瓦片金字塔
+     * @param srcPath 影像路径
+     * @param outputDir 瓦片输出文件夹
+     * @param minZoom 最小层级，小于0时根据影像大小计算
+     * @param maxZoom 最大层级，小于0时根据影像分辨率计算
+     * @param format 瓦片格式 PNG JPEG WEBP，WEBP只支持3波段影像
+     * @param tms true为TMS行号（自下而上），false为XYZ行号（自上而下）
+     * @param parallelism 并行线程数
+     * @return 生成的瓦片数量
+     */
+    public static int generateTiles(String srcPath, String outputDir, int minZoom, int maxZoom, String format, boolean tms, int parallelism){
+        Dataset dataset = DatasetPool.open(srcPath);
+        if (dataset == null)
+            throw new IllegalArgumentException("无法打开影像：" + srcPath);
+        if (!GeoUtils.hasGeoInfo(dataset)) {
+            dataset.delete();
+            throw new IllegalArgumentException("影像：" + srcPath + " 没有地理信息，无法生成瓦片");
+        }
+
+        TileFormat tileFormat = TileFormat.of(format);
+        String mercatorWkt = mercatorWkt();
+        float[] imageHistogramMinMax = SliceGenerateUtil.calculateImageHistogramMinMax(dataset);
+        double[] lonLatRange = GeoUtils.getCoordinateRange(dataset, GeoUtils.COORDINATE_LONLAT);
+        //显示波段按原始影像的波段数选择，重投影数据集末尾可能带有alpha波段
+        int[] rgbBands = SliceGenerateUtil.getRGBBand(dataset);
+        Dataset warpedDataset;
+        try {
+            warpedDataset = createWarpedDataset(dataset, mercatorWkt, srcPath, tileFormat.alpha);
+        } catch (RuntimeException e) {
+            dataset.delete();
+            throw e;
+        }
+        double[] mercatorTransform = warpedDataset.GetGeoTransform();
+        int warpedWidth = warpedDataset.getRasterXSize();
+        int warpedHeight = warpedDataset.getRasterYSize();
+        int rgbBandCount = rgbBands.length;
+        warpedDataset.delete();
+        dataset.delete();
+        if (tileFormat == TileFormat.WEBP && rgbBandCount != 3)
+            throw new IllegalArgumentException("WEBP格式瓦片只支持3波段影像：" + srcPath);
+
+        double resolution = mercatorTransform[1];
+        if (maxZoom < 0)
+            maxZoom = Math.min(MAX_ZOOM, Math.max(0, (int) Math.ceil(log2(2 * ORIGIN_SHIFT / (TILE_SIZE * resolution)))));
+        if (minZoom < 0)
+            minZoom = Math.max(0, maxZoom - (int) Math.ceil(log2(Math.max(warpedWidth, warpedHeight) / (double) TILE_SIZE)));
+        minZoom = Math.min(minZoom, maxZoom);
+        log.info("开始生成影像：{} 的瓦片，经纬度范围：{}，层级：{}-{}",srcPath,Arrays.toString(lonLatRange),minZoom,maxZoom);
+
+        double minX = mercatorTransform[0];
+        double maxY = mercatorTransform[3];
+        double maxX = minX + warpedWidth * mercatorTransform[1];
+        double minY = maxY + warpedHeight * mercatorTransform[5];
+        double tileMeters = 2 * ORIGIN_SHIFT / (1L << maxZoom);
+        int tileCount = 1 << maxZoom;
+        int[] tileRange = new int[]{
+                clamp((int) Math.floor((minX + ORIGIN_SHIFT) / tileMeters), tileCount),
+                clamp((int) Math.floor((ORIGIN_SHIFT - maxY) / tileMeters), tileCount),
+                clamp((int) Math.ceil((maxX + ORIGIN_SHIFT) / tileMeters) - 1, tileCount),
+                clamp((int) Math.ceil((ORIGIN_SHIFT - minY) / tileMeters) - 1, tileCount)};
+
+        int tileBandCount = tileFormat.alpha ? rgbBandCount + 1 : rgbBandCount;
+        TileContext context = new TileContext(srcPath, outputDir, mercatorWkt, tileFormat, tms, rgbBands, tileBandCount, imageHistogramMinMax);
+        AtomicInteger generatedCount = new AtomicInteger(0);
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        try {
+            generateBaseLevel(context, maxZoom, tileRange, executorService, Math.max(1, parallelism), generatedCount);
+            for (int zoom = maxZoom - 1; zoom >= minZoom; zoom--) {
+                int shift = maxZoom - zoom;
+                int[] levelRange = new int[]{tileRange[0] >> shift, tileRange[1] >> shift, tileRange[2] >> shift, tileRange[3] >> shift};
+                generateOverviewLevel(context, zoom, levelRange, executorService, generatedCount);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        log.info("影像：{} 的瓦片生成完成，共{}张",srcPath,generatedCount.get());
+        return generatedCount.get();
+    }
+
+    /**
+     * 生成最高层级瓦片，每个线程各自打开原始影像及重投影的虚拟数据集
+     */
+    private static void generateBaseLevel(TileContext context, int zoom, int[] tileRange, ExecutorService executorService,
+                                          int parallelism, AtomicInteger generatedCount){
+        AtomicInteger nextRow = new AtomicInteger(tileRange[1]);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int worker = 0; worker < parallelism; worker++) {
+            futures.add(executorService.submit(() -> {
+                Dataset dataset = DatasetPool.open(context.srcPath);
+                if (dataset == null)
+                    throw new IllegalStateException("无法打开影像：" + context.srcPath);
+                Dataset warpedDataset = null;
+                try {
+                    warpedDataset = createWarpedDataset(dataset, context.mercatorWkt, context.srcPath, context.tileFormat.alpha);
+                    int tileY;
+                    while ((tileY = nextRow.getAndIncrement()) <= tileRange[3]) {
+                        for (int tileX = tileRange[0]; tileX <= tileRange[2]; tileX++) {
+                            if (writeBaseTile(context, warpedDataset, zoom, tileX, tileY))
+                                generatedCount.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    if (warpedDataset != null)
+                        warpedDataset.delete();
+                    dataset.delete();
+                }
+            }));
+        }
+        waitFor(futures, context.srcPath);
+    }
+
+    /**
+     * 创建重投影到web墨卡托的虚拟数据集，失败时抛出包含GDAL错误信息的异常
+     * @param alpha 是否在末尾添加alpha波段，原始影像覆盖范围外为0
+     */
+    private static Dataset createWarpedDataset(Dataset dataset, String mercatorWkt, String srcPath, boolean alpha){
+        Vector<String> options = new Vector<>(Arrays.asList("-of", "VRT", "-t_srs", mercatorWkt, "-r", "bilinear"));
+        if (alpha)
+            options.add("-dstalpha");
+        Dataset warpedDataset = gdal.Warp("", new Dataset[]{dataset}, new WarpOptions(options));
+        if (warpedDataset == null)
+            throw new IllegalStateException("影像：" + srcPath + " 重投影失败：" + gdal.GetLastErrorMsg());
+        return warpedDataset;
+    }
+
+    private static boolean writeBaseTile(TileContext context, Dataset warpedDataset, int zoom, int tileX, int tileY){
+        double[] geoTransform = warpedDataset.GetGeoTransform();
+        int width = warpedDataset.getRasterXSize();
+        int height = warpedDataset.getRasterYSize();
+        double tileMeters = 2 * ORIGIN_SHIFT / (1L << zoom);
+        double tileMinX = -ORIGIN_SHIFT + tileX * tileMeters;
+        double tileMaxY = ORIGIN_SHIFT - tileY * tileMeters;
+
+        //瓦片在重投影影像中的像素窗口，以及裁剪到影像范围后在瓦片中的位置
+        double pixelMinX = (tileMinX - geoTransform[0]) / geoTransform[1];
+        double pixelMinY = (tileMaxY - geoTransform[3]) / geoTransform[5];
+        double pixelSizeX = tileMeters / geoTransform[1];
+        double pixelSizeY = tileMeters / -geoTransform[5];
+        int readMinX = Math.max(0, (int) Math.floor(pixelMinX));
+        int readMinY = Math.max(0, (int) Math.floor(pixelMinY));
+        int readMaxX = Math.min(width, (int) Math.ceil(pixelMinX + pixelSizeX));
+        int readMaxY = Math.min(height, (int) Math.ceil(pixelMinY + pixelSizeY));
+        if (readMaxX <= readMinX || readMaxY <= readMinY)
+            return false;
+        int writeMinX = clampPixel((int) Math.round((readMinX - pixelMinX) * TILE_SIZE / pixelSizeX));
+        int writeMinY = clampPixel((int) Math.round((readMinY - pixelMinY) * TILE_SIZE / pixelSizeY));
+        int writeMaxX = clampPixel((int) Math.round((readMaxX - pixelMinX) * TILE_SIZE / pixelSizeX));
+        int writeMaxY = clampPixel((int) Math.round((readMaxY - pixelMinY) * TILE_SIZE / pixelSizeY));
+        int writeWidth = writeMaxX - writeMinX;
+        int writeHeight = writeMaxY - writeMinY;
+        if (writeWidth <= 0 || writeHeight <= 0)
+            return false;
+
+        Driver memDriver = gdal.GetDriverByName("MEM");
+        Dataset regionDataset = memDriver.Create("", writeWidth, writeHeight, context.rgbBands.length, gdalconst.GDT_Byte);
+        SliceGenerateUtil.sliceDataset(warpedDataset, context.rgbBands, regionDataset, readMinX, readMinY, readMaxX - readMinX, readMaxY - readMinY,
+                writeWidth, writeHeight, context.imageHistogramMinMax);
+
+        Dataset tileDataset = memDriver.Create("", TILE_SIZE, TILE_SIZE, context.tileBandCount, gdalconst.GDT_Byte);
+        ByteBuffer buffer = StretchKernel.writeBuffer((long) writeWidth * writeHeight);
+        for (int band = 1; band <= context.rgbBands.length; band++) {
+            regionDataset.GetRasterBand(band).ReadRaster_Direct(0, 0, writeWidth, writeHeight, writeWidth, writeHeight, gdalconst.GDT_Byte, buffer);
+            tileDataset.GetRasterBand(band).WriteRaster_Direct(writeMinX, writeMinY, writeWidth, writeHeight, writeWidth, writeHeight, gdalconst.GDT_Byte, buffer);
+        }
+        if (context.tileFormat.alpha) {
+            //alpha取自重投影时添加的最后一个波段，与RGB由同一次重投影得到，影像范围外的角落保持透明
+            warpedDataset.GetRasterBand(warpedDataset.getRasterCount()).ReadRaster_Direct(readMinX, readMinY, readMaxX - readMinX, readMaxY - readMinY, writeWidth, writeHeight,
+                    gdalconst.GDT_Byte, buffer);
+            tileDataset.GetRasterBand(context.tileBandCount).WriteRaster_Direct(writeMinX, writeMinY, writeWidth, writeHeight, writeWidth, writeHeight, gdalconst.GDT_Byte, buffer);
+        }
+        regionDataset.delete();
+
+        writeTile(context, tileDataset, zoom, tileX, tileY);
+        tileDataset.delete();
+        return true;
+    }
+
+    /**
+     * 由下一层级的四张瓦片合并抽稀生成当前层级瓦片
+     */
+    private static void generateOverviewLevel(TileContext context, int zoom, int[] tileRange, ExecutorService executorService,
+                                              AtomicInteger generatedCount){
+        List<Future<?>> futures = new ArrayList<>();
+        for (int tileY = tileRange[1]; tileY <= tileRange[3]; tileY++) {
+            int row = tileY;
+            futures.add(executorService.submit(() -> {
+                for (int tileX = tileRange[0]; tileX <= tileRange[2]; tileX++) {
+                    if (writeOverviewTile(context, zoom, tileX, row))
+                        generatedCount.incrementAndGet();
+                }
+            }));
+        }
+        waitFor(futures, context.srcPath);
+    }
+
+    private static boolean writeOverviewTile(TileContext context, int zoom, int tileX, int tileY){
+        int half = TILE_SIZE / 2;
+        byte[] childPixels = new byte[TILE_SIZE * TILE_SIZE];
+        byte[] halfPixels = new byte[half * half];
+        Dataset tileDataset = null;
+        for (int childIndex = 0; childIndex < 4; childIndex++) {
+            int offsetX = childIndex % 2, offsetY = childIndex / 2;
+            File childFile = new File(tilePath(context, zoom + 1, tileX * 2 + offsetX, tileY * 2 + offsetY));
+            if (!childFile.exists())
+                continue;
+            Dataset childDataset = DatasetPool.open(childFile.getAbsolutePath());
+            if (childDataset == null)
+                continue;
+            if (tileDataset == null)
+                tileDataset = gdal.GetDriverByName("MEM").Create("", TILE_SIZE, TILE_SIZE, context.tileBandCount, gdalconst.GDT_Byte);
+
+            int bandCount = Math.min(context.tileBandCount, childDataset.getRasterCount());
+            for (int band = 1; band <= bandCount; band++) {
+                Band childBand = childDataset.GetRasterBand(band);
+                childBand.ReadRaster(0, 0, TILE_SIZE, TILE_SIZE, childPixels);
+                for (int row = 0; row < half; row++) {
+                    int top = row * 2 * TILE_SIZE;
+                    int bottom = top + TILE_SIZE;
+                    for (int column = 0; column < half; column++) {
+                        int left = column * 2;
+                        int sum = (childPixels[top + left] & 0xFF) + (childPixels[top + left + 1] & 0xFF)
+                                + (childPixels[bottom + left] & 0xFF) + (childPixels[bottom + left + 1] & 0xFF);
+                        halfPixels[row * half + column] = (byte) (sum >> 2);
+                    }
+                }
+                tileDataset.GetRasterBand(band).WriteRaster(offsetX * half, offsetY * half, half, half, halfPixels);
+            }
+            childDataset.delete();
+        }
+        if (tileDataset == null)
+            return false;
+
+        writeTile(context, tileDataset, zoom, tileX, tileY);
+        tileDataset.delete();
+        return true;
+    }
+
+    private static void writeTile(TileContext context, Dataset tileDataset, int zoom, int tileX, int tileY){
+        File tileFile = new File(tilePath(context, zoom, tileX, tileY));
+        if (!tileFile.getParentFile().exists())
+            tileFile.getParentFile().mkdirs();
+        Driver driver = gdal.GetDriverByName(context.tileFormat.driverName);
+        Dataset output = driver.CreateCopy(tileFile.getAbsolutePath(), tileDataset);
+        if (output == null)
+            throw new IllegalStateException("写入瓦片：" + tileFile.getAbsolutePath() + " 失败：" + gdal.GetLastErrorMsg());
+        output.delete();
+    }
+
+    /**
+     * 瓦片路径 outputDir/z/x/y.扩展名，行号内部统一按XYZ计算，TMS在此处翻转
+     */
+    private static String tilePath(TileContext context, int zoom, int tileX, int tileY){
+        int row = context.tms ? (1 << zoom) - 1 - tileY : tileY;
+        return FileUtils.getStringPath(context.outputDir, zoom, tileX, row + "." + context.tileFormat.extension);
+    }
+
+    private static String mercatorWkt(){
+        SpatialReference spatialReference = new SpatialReference();
+        spatialReference.ImportFromEPSG(3857);
+        String wkt = spatialReference.ExportToWkt();
+        spatialReference.delete();
+        return wkt;
+    }
+
+    private static void waitFor(List<Future<?>> futures, String srcPath){
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("影像：" + srcPath + " 瓦片生成被中断", e);
+        } catch (ExecutionException e) {
+            log.error("影像：{} 瓦片生成失败",srcPath);
+            throw new IllegalStateException("影像：" + srcPath + " 瓦片生成失败", e.getCause());
+        }
+    }
+
+    private static double log2(double value){
+        return Math.log(value) / Math.log(2);
+    }
+
+    private static int clamp(int tile, int tileCount){
+        return Math.max(0, Math.min(tileCount - 1, tile));
+    }
+
+    private static int clampPixel(int pixel){
+        return Math.max(0, Math.min(TILE_SIZE, pixel));
+    }
+
+    /**
+     * 瓦片格式
+     */
+    private enum TileFormat {
+        PNG("PNG", "png", true), JPEG("JPEG", "jpg", false), WEBP("WEBP", "webp", true);
+
+        private final String driverName;
+        private final String extension;
+        private final boolean alpha;
+
+        TileFormat(String driverName, String extension, boolean alpha){
+            this.driverName = driverName;
+            this.extension = extension;
+            this.alpha = alpha;
+        }
+
+        private static TileFormat of(String format){
+            if ("jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format))
+                return JPEG;
+            if ("webp".equalsIgnoreCase(format))
+                return WEBP;
+            if ("png".equalsIgnoreCase(format))
+                return PNG;
+            throw new IllegalArgumentException("不支持的瓦片格式：" + format);
+        }
+    }
+
+    private static class TileContext {
+        private final String srcPath;
+        private final String outputDir;
+        private final String mercatorWkt;
+        private final TileFormat tileFormat;
+        private final boolean tms;
+        //原始影像中用于显示的波段号，重投影数据集的波段号与之相同
+        private final int[] rgbBands;
+        private final int tileBandCount;
+        private final float[] imageHistogramMinMax;
+
+        private TileContext(String srcPath, String outputDir, String mercatorWkt, TileFormat tileFormat, boolean tms,
+                            int[] rgbBands, int tileBandCount, float[] imageHistogramMinMax){
+            this.srcPath = srcPath;
+            this.outputDir = outputDir;
+            this.mercatorWkt = mercatorWkt;
+            this.tileFormat = tileFormat;
+            this.tms = tms;
+            this.rgbBands = rgbBands;
+            this.tileBandCount = tileBandCount;
+            this.imageHistogramMinMax = imageHistogramMinMax;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package cn.aircas.utils.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内存中的指标记录实现
+ * 计数器使用LongAdder，耗时按2的幂分桶统计，百分位为所在桶的上界估算值
+ * @author vanishrain
+ */
+public class InMemoryMetricsRecorder implements MetricsRecorder {
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public void increment(String name, long delta){
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+    }
+
+    @Override
+    public void recordNanos(String name, long nanos){
+        histograms.computeIfAbsent(name, key -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * 获取计数器的值
+     * @param name 指标名称
+     * @return 未记录过时返回0
+     */
+    public long getCounter(String name){
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * 获取耗时统计
+     * @param name 指标名称
+     * @return 未记录过时返回null
+     */
+    public LatencyHistogram getHistogram(String name){
+        return histograms.get(name);
+    }
+
+    /**
+     * 所有计数器的当前值，按名称排序
+     * @return
+     */
+    public Map<String, Long> getCounters(){
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        return snapshot;
+    }
+
+    /**
+     * 所有耗时统计，按名称排序
+     * @return
+     */
+    public Map<String, LatencyHistogram> getHistograms(){
+        return new TreeMap<>(histograms);
+    }
+
+    public void reset(){
+        counters.clear();
+        histograms.clear();
+    }
+
+    /**
+     * 输出所有指标，便于写入日志
+     */
+    @Override
+    public String toString(){
+        StringBuilder builder = new StringBuilder();
+        getCounters().forEach((name, value) -> builder.append(name).append('=').append(value).append('\n'));
+        getHistograms().forEach((name, histogram) -> builder.append(name).append(' ').append(histogram).append('\n'));
+        return builder.toString();
+    }
+
+    /**
+     * 耗时分布，第i个桶统计[2^(i-1), 2^i)纳秒的次数
+     */
+    public static class LatencyHistogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos){
+            nanos = Math.max(0, nanos);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            long max;
+            do {
+                max = maxNanos.get();
+            } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+        }
+
+        public long getCount(){
+            return count.sum();
+        }
+
+        public long getTotalNanos(){
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos(){
+            return maxNanos.get();
+        }
+
+        public long getMeanNanos(){
+            long total = count.sum();
+            return total == 0 ? 0 : totalNanos.sum() / total;
+        }
+
+        /**
+         * 百分位耗时估算
+         * @param percentile 0到1之间，如0.99
+         * @return 所在桶的上界，不超过最大值
+         */
+        public long getPercentileNanos(double percentile){
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                snapshot[bucket] = buckets.get(bucket);
+                total += snapshot[bucket];
+            }
+            if (total == 0)
+                return 0;
+            long rank = (long) Math.ceil(total * Math.min(1, Math.max(0, percentile)));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += snapshot[bucket];
+                if (seen >= rank && seen > 0)
+                    return Math.min(bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1, getMaxNanos());
+            }
+            return getMaxNanos();
+        }
+
+        @Override
+        public String toString(){
+            return String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms", getCount(),
+                    getMeanNanos() / 1e6, getPercentileNanos(0.5) / 1e6, getPercentileNanos(0.99) / 1e6, getMaxNanos() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package cn.aircas.utils.metrics;
+
+/**
+ * 指标记录入口，库内各处通过此类上报指标，默认不记录
+ * @author vanishrain
+ */
+public class Metrics {
+
+    //打开gdal数据集耗时
+    public static final String DATASET_OPEN = "raster.dataset.open";
+    //DatasetPool命中次数
+    public static final String DATASET_POOL_HIT = "raster.dataset.pool.hit";
+    //sliceDataset读取的像素字节数
+    public static final String SLICE_BYTES_READ = "raster.slice.bytes.read";
+    //sliceDataset耗时
+    public static final String SLICE = "raster.slice";
+    //直方图拉伸参数计算耗时，不含缓存命中
+    public static final String HISTOGRAM = "raster.histogram";
+    //直方图拉伸参数缓存命中次数
+    public static final String HISTOGRAM_CACHE_HIT = "raster.histogram.cache.hit";
+    //缩略图生成耗时
+    public static final String THUMBNAIL = "raster.thumbnail";
+    //坐标系转换耗时，批量转换记录一次
+    public static final String COORDINATE_TRANSFORM = "geo.coordinate.transform";
+    //坐标系转换的点数
+    public static final String COORDINATE_TRANSFORM_POINTS = "geo.coordinate.transform.points";
+    //压缩包解压耗时
+    public static final String ARCHIVE_EXTRACT = "archive.extract";
+    //解压的文件数量
+    public static final String ARCHIVE_ENTRIES = "archive.entries";
+    //解压写出的字节数
+    public static final String ARCHIVE_BYTES = "archive.bytes";
+
+    private static volatile MetricsRecorder recorder = NoopMetricsRecorder.INSTANCE;
+
+    /**
+     * 设置指标记录实现
+     * @param metricsRecorder 为null时恢复为不记录
+     */
+    public static void setRecorder(MetricsRecorder metricsRecorder){
+        recorder = metricsRecorder == null ? NoopMetricsRecorder.INSTANCE : metricsRecorder;
+    }
+
+    public static MetricsRecorder getRecorder(){
+        return recorder;
+    }
+
+    /**
+     * 计数器累加
+     */
+    public static void increment(String name, long delta){
+        recorder.increment(name, delta);
+    }
+
+    /**
+     * 记录从startNanos（System.nanoTime）开始到现在的耗时
+     */
+    public static void recordSince(String name, long startNanos){
+        MetricsRecorder metricsRecorder = recorder;
+        if (metricsRecorder != NoopMetricsRecorder.INSTANCE)
+            metricsRecorder.recordNanos(name, System.nanoTime() - startNanos);
+    }
+}
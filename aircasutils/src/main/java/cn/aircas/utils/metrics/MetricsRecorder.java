@@ -0,0 +1,23 @@
+package cn.aircas.utils.metrics;
+
+/**
+ * 指标记录接口，使用方可接入自己的监控系统
+ * 实现需要线程安全，且不应抛出异常或阻塞调用线程
+ * @author vanishrain
+ */
+public interface MetricsRecorder {
+
+    /**
+     * 计数器累加
+     * @param name 指标名称
+     * @param delta 增量
+     */
+    void increment(String name, long delta);
+
+    /**
+     * 记录一次耗时
+     * @param name 指标名称
+     * @param nanos 耗时，纳秒
+     */
+    void recordNanos(String name, long nanos);
+}
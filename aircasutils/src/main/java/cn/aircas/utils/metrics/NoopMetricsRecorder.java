@@ -0,0 +1,21 @@
+package cn.aircas.utils.metrics;
+
+/**
+ * 不记录任何指标，默认使用
+ * @author vanishrain
+ */
+public final class NoopMetricsRecorder implements MetricsRecorder {
+
+    public static final NoopMetricsRecorder INSTANCE = new NoopMetricsRecorder();
+
+    private NoopMetricsRecorder(){
+    }
+
+    @Override
+    public void increment(String name, long delta){
+    }
+
+    @Override
+    public void recordNanos(String name, long nanos){
+    }
+}
@@ -0,0 +1,150 @@
+package cn.aircas.utils.comporess;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ArchiveEntryIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final TarFixture tarFixture = new TarFixture();
+
+    @Test
+    public void indexesTarOffsets() throws Exception {
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+        ArchiveEntryIndex index = ArchiveEntryIndex.open(tarFile);
+        assertTrue(index.isRandomAccess());
+        assertOffsets(index, Files.readAllBytes(tarFile.toPath()));
+        assertContents(index);
+    }
+
+    @Test
+    public void indexesGzipTarOffsets() throws Exception {
+        File tgzFile = tarFixture.write(temporaryFolder.newFile("a.tgz"), true);
+        ArchiveEntryIndex index = ArchiveEntryIndex.open(tgzFile);
+        assertFalse(index.isRandomAccess());
+        byte[] tarBytes;
+        try (InputStream inputStream = TarExtractor.open(tgzFile, TarExtractor.TarCompression.GZIP)) {
+            tarBytes = IOUtils.toByteArray(inputStream);
+        }
+        assertOffsets(index, tarBytes);
+        assertContents(index);
+    }
+
+    @Test
+    public void savedIndexIsReused() throws Exception {
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+        List<ArchiveIndexEntry> scanned = ArchiveEntryIndex.open(tarFile).getEntries();
+        File indexFile = new File(tarFile.getPath() + ".idx");
+        assertTrue(indexFile.isFile());
+
+        assertEquals(scanned, ArchiveEntryIndex.open(tarFile).getEntries());
+        //压缩包变化后索引失效，重新扫描
+        tarFixture.files.remove(TarFixture.EMPTY_NAME);
+        tarFixture.write(tarFile, false);
+        tarFile.setLastModified(tarFile.lastModified() + 2000);
+        assertNull(ArchiveEntryIndex.open(tarFile).getEntry(TarFixture.EMPTY_NAME));
+    }
+
+    @Test
+    public void concurrentIndexingLeavesNoTempFiles() throws Exception {
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+        int threads = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<ArchiveIndexEntry>>> futures = new ArrayList<>();
+        try {
+            for (int index = 0; index < threads; index++) {
+                futures.add(executorService.submit(() -> {
+                    start.await();
+                    return ArchiveEntryIndex.open(tarFile).getEntries();
+                }));
+            }
+            start.countDown();
+            List<ArchiveIndexEntry> expected = futures.get(0).get();
+            for (Future<List<ArchiveIndexEntry>> future : futures)
+                assertEquals(expected, future.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        String[] names = tarFile.getParentFile().list();
+        Arrays.sort(names);
+        assertArrayEquals(new String[]{"a.tar", "a.tar.idx"}, names);
+        assertEquals(futures.get(0).get(), ArchiveEntryIndex.open(tarFile).getEntries());
+    }
+
+    @Test
+    public void randomAccessChannel() throws Exception {
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+        ArchiveEntryIndex index = ArchiveEntryIndex.open(tarFile);
+        byte[] expected = tarFixture.files.get(TarFixture.LONG_NAME);
+        try (SeekableByteChannel channel = index.openChannel(TarFixture.LONG_NAME)) {
+            assertEquals(expected.length, channel.size());
+            channel.position(60000);
+            ByteBuffer buffer = ByteBuffer.allocate(20000);
+            assertEquals(expected.length - 60000, channel.read(buffer));
+            assertArrayEquals(Arrays.copyOfRange(expected, 60000, expected.length), Arrays.copyOf(buffer.array(), buffer.position()));
+            assertEquals(-1, channel.read(buffer));
+        }
+    }
+
+    private void assertOffsets(ArchiveEntryIndex index, byte[] tarBytes){
+        List<String> names = new ArrayList<>();
+        for (ArchiveIndexEntry entry : index.getEntries())
+            names.add(entry.getName());
+        List<String> expectedNames = new ArrayList<>();
+        expectedNames.add(TarFixture.DIRECTORY);
+        expectedNames.addAll(tarFixture.files.keySet());
+        //链接和FIFO不进入索引
+        assertEquals(expectedNames, names);
+
+        ArchiveIndexEntry longEntry = index.getEntry(TarFixture.LONG_NAME);
+        assertEquals(255, longEntry.getName().length());
+        //长文件名的文件头从PAX扩展头开始
+        assertEquals('x', tarBytes[(int) longEntry.getHeaderOffset() + 156]);
+
+        for (ArchiveIndexEntry entry : index.getEntries()) {
+            assertEquals("ustar", new String(tarBytes, (int) entry.getHeaderOffset() + 257, 5, StandardCharsets.US_ASCII));
+            assertEquals(TarFixture.MODIFY_TIME, entry.getModifyTime());
+            if (entry.isDirectory())
+                continue;
+            byte[] expected = tarFixture.files.get(entry.getName());
+            assertEquals(expected.length, entry.getSize());
+            assertArrayEquals(entry.getName(), expected, Arrays.copyOfRange(tarBytes, (int) entry.getDataOffset(),
+                    (int) entry.getDataOffset() + expected.length));
+        }
+    }
+
+    private void assertContents(ArchiveEntryIndex index) throws IOException {
+        for (Map.Entry<String, byte[]> file : tarFixture.files.entrySet()) {
+            try (InputStream inputStream = index.openStream(file.getKey())) {
+                assertArrayEquals(file.getKey(), file.getValue(), IOUtils.toByteArray(inputStream));
+            }
+            File destFile = new File(temporaryFolder.getRoot(), "out/" + file.getKey());
+            index.extract(file.getKey(), destFile, null);
+            assertArrayEquals(file.getKey(), file.getValue(), Files.readAllBytes(destFile.toPath()));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package cn.aircas.utils.comporess;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+public class ArchiveJobServiceTest {
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final TarFixture tarFixture = new TarFixture();
+
+    @After
+    public void restoreLimit(){
+        ArchiveJobService.setMaxConcurrentJobs(2);
+    }
+
+    @Test
+    public void cancelledQueuedJobNeverRuns() throws Exception {
+        ArchiveJobService.setMaxConcurrentJobs(1);
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+
+        BlockingListener blockingListener = new BlockingListener();
+        ArchiveJob running = blockingListener.attach(ArchiveJobService.submitDecompress(tarFile.getPath(),
+                new File(temporaryFolder.getRoot(), "running").getPath(), false, blockingListener));
+        blockingListener.awaitBlocked();
+
+        AtomicBoolean called = new AtomicBoolean();
+        File queuedDir = new File(temporaryFolder.getRoot(), "queued");
+        ArchiveJob queued = ArchiveJobService.submitDecompress(tarFile.getPath(), queuedDir.getPath(), false,
+                new ArchiveProgressListener() {
+                    @Override
+                    public void onBytes(long bytes) {
+                        called.set(true);
+                    }
+                });
+        queued.cancel();
+        assertCancelled(queued);
+
+        blockingListener.release();
+        running.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        //只有一个执行线程，后提交的任务完成时排在前面的已取消任务已经出队
+        ArchiveJobService.submitDecompress(tarFile.getPath(), new File(temporaryFolder.getRoot(), "after").getPath(), false, null)
+                .getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertFalse(called.get());
+        assertFalse(queuedDir.exists());
+    }
+
+    @Test
+    public void cancelRunningTarJob() throws Exception {
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+        BlockingListener blockingListener = new BlockingListener();
+        ArchiveJob archiveJob = blockingListener.attach(ArchiveJobService.submitDecompress(tarFile.getPath(),
+                temporaryFolder.newFolder().getPath(), false, blockingListener));
+        blockingListener.awaitBlocked();
+        archiveJob.cancel();
+        assertCancelled(archiveJob);
+    }
+
+    @Test
+    public void cancelRunningZipJobRemovesTempFiles() throws Exception {
+        File srcDir = temporaryFolder.newFolder("src");
+        Random random = new Random(7);
+        for (int index = 0; index < 8; index++) {
+            byte[] content = new byte[256 * 1024];
+            random.nextBytes(content);
+            Files.write(new File(srcDir, index + ".bin").toPath(), content);
+        }
+        Set<String> tempFilesBefore = scatterTempFiles();
+
+        BlockingListener blockingListener = new BlockingListener();
+        ArchiveJob archiveJob = blockingListener.attach(ArchiveJobService.submitToZip(srcDir.getPath(),
+                new ByteArrayOutputStream(), blockingListener));
+        blockingListener.awaitBlocked();
+        archiveJob.cancel();
+        assertCancelled(archiveJob);
+        //任务完成前压缩线程的临时文件已经删除
+        assertEquals(tempFilesBefore, scatterTempFiles());
+    }
+
+    @Test
+    public void maxConcurrentJobsCapsRunningJobs() throws Exception {
+        ArchiveJobService.setMaxConcurrentJobs(2);
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+        List<BlockingListener> listeners = new ArrayList<>();
+        List<ArchiveJob> archiveJobs = new ArrayList<>();
+        for (int index = 0; index < 4; index++) {
+            BlockingListener blockingListener = new BlockingListener();
+            listeners.add(blockingListener);
+            archiveJobs.add(blockingListener.attach(ArchiveJobService.submitDecompress(tarFile.getPath(),
+                    new File(temporaryFolder.getRoot(), "dest" + index).getPath(), false, blockingListener)));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (blockedCount(listeners) < 2 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        //给超出上限的任务留出开始执行的时间
+        Thread.sleep(200);
+        assertEquals(2, blockedCount(listeners));
+        assertEquals(2, ArchiveJobService.getQueuedJobs());
+
+        for (BlockingListener blockingListener : listeners)
+            blockingListener.release();
+        for (ArchiveJob archiveJob : archiveJobs)
+            archiveJob.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        for (int index = 0; index < 4; index++)
+            assertTrue(new File(temporaryFolder.getRoot(), "dest" + index + "/" + TarFixture.SMALL_NAME).isFile());
+    }
+
+    @Test
+    public void poolThreadIsNotInterruptedAfterCancel() throws Exception {
+        ArchiveJobService.setMaxConcurrentJobs(1);
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+        BlockingListener blockingListener = new BlockingListener();
+        ArchiveJob cancelled = blockingListener.attach(ArchiveJobService.submitDecompress(tarFile.getPath(),
+                temporaryFolder.newFolder().getPath(), false, blockingListener));
+        blockingListener.awaitBlocked();
+        cancelled.cancel();
+        assertCancelled(cancelled);
+
+        AtomicBoolean interrupted = new AtomicBoolean();
+        ArchiveJob next = ArchiveJobService.submitDecompress(tarFile.getPath(), temporaryFolder.newFolder().getPath(), false,
+                new ArchiveProgressListener() {
+                    @Override
+                    public void onBytes(long bytes) {
+                        if (Thread.currentThread().isInterrupted())
+                            interrupted.set(true);
+                    }
+                });
+        next.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertFalse(interrupted.get());
+        assertEquals(tarFixture.files.size(), next.getEntriesProcessed());
+    }
+
+    private static int blockedCount(List<BlockingListener> listeners){
+        int count = 0;
+        for (BlockingListener blockingListener : listeners) {
+            if (blockingListener.blocked.getCount() == 0)
+                count++;
+        }
+        return count;
+    }
+
+    private static Set<String> scatterTempFiles(){
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list((dir, name) -> name.startsWith("parallelscatter"));
+        return names == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(names));
+    }
+
+    private static void assertCancelled(ArchiveJob archiveJob) throws Exception {
+        try {
+            archiveJob.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("任务应当已取消");
+        } catch (CancellationException e) {
+            //预期
+        }
+        assertTrue(archiveJob.isCancelled());
+    }
+
+    /**
+     * 第一次写出数据或开始压缩文件时阻塞，直到任务被取消或被释放
+     * 阻塞时不响应中断，由ArchiveJob在下一次回调时终止任务
+     */
+    private static class BlockingListener implements ArchiveProgressListener {
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile boolean released;
+        private volatile ArchiveJob archiveJob;
+
+        ArchiveJob attach(ArchiveJob archiveJob){
+            this.archiveJob = archiveJob;
+            return archiveJob;
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertTrue("任务未开始执行", blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        void release(){
+            released = true;
+        }
+
+        @Override
+        public void onEntryStart(String entryName, long size) {
+            block();
+        }
+
+        @Override
+        public void onBytes(long bytes) {
+            block();
+        }
+
+        private void block(){
+            blocked.countDown();
+            while (!released && (archiveJob == null || !archiveJob.isCancelled()))
+                LockSupport.parkNanos(1000000L);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package cn.aircas.utils.comporess;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ArchiveJobTest {
+
+    @Test
+    public void completesWithProgress() throws Exception {
+        ArchiveJob archiveJob = new ArchiveJob("a.tar", null);
+        archiveJob.run(listener -> {
+            listener.onEntryStart("a.tif", 10);
+            listener.onBytes(4);
+            listener.onBytes(6);
+            listener.onEntryComplete("a.tif", 10);
+        });
+        assertNull(archiveJob.getFuture().get());
+        assertEquals(10, archiveJob.getBytesProcessed());
+        assertEquals(1, archiveJob.getEntriesProcessed());
+    }
+
+    @Test
+    public void failureCompletesWithCause() throws Exception {
+        ArchiveJob archiveJob = new ArchiveJob("a.tar", null);
+        IOException failure = new IOException("broken");
+        archiveJob.run(listener -> {
+            throw failure;
+        });
+        try {
+            archiveJob.getFuture().get();
+            fail("任务应当失败");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertFalse(archiveJob.isCancelled());
+    }
+
+    @Test
+    public void cancelledJobNeverRuns(){
+        ArchiveJob archiveJob = new ArchiveJob("a.tar", null);
+        archiveJob.cancel();
+        AtomicBoolean ran = new AtomicBoolean();
+        archiveJob.run(listener -> ran.set(true));
+        assertFalse(ran.get());
+        assertCancelled(archiveJob);
+    }
+
+    @Test
+    public void cancelDuringRunStopsAtNextProgressAndClearsInterrupt(){
+        ArchiveJob archiveJob = new ArchiveJob("a.tar", null);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean continued = new AtomicBoolean();
+        archiveJob.run(listener -> {
+            listener.onBytes(1);
+            archiveJob.cancel();
+            interrupted.set(Thread.currentThread().isInterrupted());
+            listener.onBytes(1);
+            continued.set(true);
+        });
+        assertTrue(interrupted.get());
+        assertFalse(continued.get());
+        assertEquals(1, archiveJob.getBytesProcessed());
+        //执行线程的中断标志在任务结束后清除
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertCancelled(archiveJob);
+    }
+
+    @Test
+    public void cancellingFutureCancelsJob(){
+        ArchiveJob archiveJob = new ArchiveJob("a.tar", null);
+        assertTrue(archiveJob.getFuture().cancel(true));
+        assertTrue(archiveJob.isCancelled());
+        AtomicBoolean ran = new AtomicBoolean();
+        archiveJob.run(listener -> ran.set(true));
+        assertFalse(ran.get());
+    }
+
+    private static void assertCancelled(ArchiveJob archiveJob){
+        assertTrue(archiveJob.isCancelled());
+        assertTrue(archiveJob.isDone());
+        try {
+            archiveJob.getFuture().get();
+            fail("任务应当已取消");
+        } catch (CancellationException e) {
+            //预期
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package cn.aircas.utils.comporess;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ParallelZipExtractorTest {
+
+    private static final String CHINESE_NAME = "影像/高分二号_全色.tif";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void extractsAllEntriesInParallel() throws Exception {
+        Random random = new Random(3);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("a/empty.txt", new byte[0]);
+        for (int index = 0; index < 6; index++) {
+            byte[] content = new byte[100000 * (index + 1)];
+            random.nextBytes(content);
+            files.put("a/b/" + index + ".bin", content);
+        }
+        File zipFile = writeZip(temporaryFolder.newFile("a.zip"), StandardCharsets.UTF_8, files);
+
+        File destDir = temporaryFolder.newFolder("dest");
+        AtomicLong bytes = new AtomicLong();
+        AtomicLong entries = new AtomicLong();
+        ParallelZipExtractor.extract(zipFile, destDir, 4, new ArchiveProgressListener() {
+            @Override
+            public void onBytes(long count) {
+                bytes.addAndGet(count);
+            }
+
+            @Override
+            public void onEntryComplete(String entryName, long count) {
+                entries.incrementAndGet();
+            }
+        });
+
+        long totalBytes = 0;
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            assertArrayEquals(file.getKey(), file.getValue(), Files.readAllBytes(new File(destDir, file.getKey()).toPath()));
+            totalBytes += file.getValue().length;
+        }
+        assertEquals(totalBytes, bytes.get());
+        assertEquals(files.size(), entries.get());
+    }
+
+    @Test
+    public void zipSlipIsRejected() throws Exception {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("ok.txt", "ok".getBytes(StandardCharsets.UTF_8));
+        files.put("../evil.txt", "evil".getBytes(StandardCharsets.UTF_8));
+        File zipFile = writeZip(temporaryFolder.newFile("slip.zip"), StandardCharsets.UTF_8, files);
+
+        File destDir = temporaryFolder.newFolder("dest");
+        try {
+            ParallelZipExtractor.extract(zipFile, destDir, 2, null);
+            fail("应当拒绝解压到输出目录之外");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("../evil.txt"));
+        }
+        assertFalse(new File(temporaryFolder.getRoot(), "evil.txt").exists());
+        //中央目录检查在解压任何文件之前完成
+        assertFalse(new File(destDir, "ok.txt").exists());
+    }
+
+    @Test
+    public void gbkNamesAreDecoded() throws Exception {
+        assertChineseName(Charset.forName("GBK"));
+    }
+
+    @Test
+    public void utf8FlaggedNamesAreDecoded() throws Exception {
+        //java.util.zip按UTF-8写出时设置UTF-8标志
+        assertChineseName(StandardCharsets.UTF_8);
+    }
+
+    private void assertChineseName(Charset charset) throws Exception {
+        byte[] content = "全色影像".getBytes(StandardCharsets.UTF_8);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put(CHINESE_NAME, content);
+        File zipFile = writeZip(temporaryFolder.newFile(charset.name() + ".zip"), charset, files);
+
+        File destDir = temporaryFolder.newFolder(charset.name());
+        List<String> entryNames = new CopyOnWriteArrayList<>();
+        //文件系统编码（sun.jnu.encoding）不支持中文时无法创建输出文件，只检查解码后的文件名
+        boolean writable = fileSystemCanEncode(CHINESE_NAME);
+        try {
+            ParallelZipExtractor.extract(zipFile, destDir, 1, new ArchiveProgressListener() {
+                @Override
+                public void onEntryStart(String entryName, long size) {
+                    entryNames.add(entryName);
+                }
+            });
+        } catch (IOException e) {
+            if (writable)
+                throw e;
+        }
+        assertEquals(Collections.singletonList(CHINESE_NAME), entryNames);
+        if (writable)
+            assertArrayEquals(content, Files.readAllBytes(new File(destDir, CHINESE_NAME).toPath()));
+    }
+
+    private static boolean fileSystemCanEncode(String name){
+        String encoding = System.getProperty("sun.jnu.encoding");
+        return encoding != null && Charset.isSupported(encoding) && Charset.forName(encoding).newEncoder().canEncode(name);
+    }
+
+    private static File writeZip(File file, Charset charset, Map<String, byte[]> files) throws IOException {
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(file), charset)) {
+            for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                zipOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+                zipOutputStream.write(entry.getValue());
+                zipOutputStream.closeEntry();
+            }
+        }
+        return file;
+    }
+}
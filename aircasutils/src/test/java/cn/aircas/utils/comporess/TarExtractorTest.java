@@ -0,0 +1,108 @@
+package cn.aircas.utils.comporess;
+
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TarExtractorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final TarFixture tarFixture = new TarFixture();
+
+    @Test
+    public void detectsCompression() throws Exception {
+        assertEquals(TarExtractor.TarCompression.NONE, TarExtractor.detect(tarFixture.write(temporaryFolder.newFile("a.tar"), false)));
+        assertEquals(TarExtractor.TarCompression.GZIP, TarExtractor.detect(tarFixture.write(temporaryFolder.newFile("a.tgz"), true)));
+
+        File text = temporaryFolder.newFile("a.txt");
+        Files.write(text.toPath(), new byte[1024]);
+        assertNull(TarExtractor.detect(text));
+    }
+
+    @Test
+    public void extractsTar() throws Exception {
+        assertExtracted(tarFixture.write(temporaryFolder.newFile("a.tar"), false));
+    }
+
+    @Test
+    public void extractsGzipTar() throws Exception {
+        assertExtracted(tarFixture.write(temporaryFolder.newFile("a.tgz"), true));
+    }
+
+    @Test
+    public void extractsZstdTar() throws Exception {
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+        File zstdFile = temporaryFolder.newFile("a.tar.zst");
+        try (OutputStream outputStream = new ZstdCompressorOutputStream(new FileOutputStream(zstdFile))) {
+            Files.copy(tarFile.toPath(), outputStream);
+        }
+        assertEquals(TarExtractor.TarCompression.ZSTD, TarExtractor.detect(zstdFile));
+        assertExtracted(zstdFile);
+    }
+
+    @Test
+    public void interruptStopsExtraction() throws Exception {
+        File tarFile = tarFixture.write(temporaryFolder.newFile("a.tar"), false);
+        Thread.currentThread().interrupt();
+        try {
+            TarExtractor.extract(tarFile, temporaryFolder.newFolder(), null);
+            fail("解压未被中断");
+        } catch (InterruptedIOException e) {
+            //预期
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonTar() throws Exception {
+        File text = temporaryFolder.newFile("a.txt");
+        Files.write(text.toPath(), "not a tar".getBytes());
+        TarExtractor.extract(text, temporaryFolder.newFolder(), null);
+    }
+
+    private void assertExtracted(File tarFile) throws Exception {
+        File destDir = temporaryFolder.newFolder();
+        AtomicLong bytes = new AtomicLong();
+        AtomicLong entries = new AtomicLong();
+        TarExtractor.extract(tarFile, destDir, new ArchiveProgressListener() {
+            @Override
+            public void onBytes(long count) {
+                bytes.addAndGet(count);
+            }
+
+            @Override
+            public void onEntryComplete(String entryName, long count) {
+                entries.incrementAndGet();
+            }
+        });
+
+        long totalBytes = 0;
+        for (Map.Entry<String, byte[]> file : tarFixture.files.entrySet()) {
+            File extracted = new File(destDir, file.getKey());
+            assertTrue(file.getKey(), extracted.isFile());
+            assertArrayEquals(file.getKey(), file.getValue(), Files.readAllBytes(extracted.toPath()));
+            assertEquals(TarFixture.MODIFY_TIME, extracted.lastModified());
+            totalBytes += file.getValue().length;
+        }
+        //链接和FIFO不写出为空文件
+        for (String linkName : TarFixture.LINK_NAMES)
+            assertFalse(linkName, new File(destDir, linkName).exists());
+        assertEquals(tarFixture.files.size(), entries.get());
+        assertEquals(totalBytes, bytes.get());
+    }
+}
@@ -0,0 +1,98 @@
+package cn.aircas.utils.comporess;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * 测试用tar文件，包含255个字符的长文件名（PAX扩展头）、空文件、符号链接、硬链接和FIFO
+ */
+class TarFixture {
+
+    static final String DIRECTORY = "dir";
+
+    static final String LONG_NAME = DIRECTORY + "/" + repeat('n', 250 - DIRECTORY.length()) + ".tif";
+
+    static final String SMALL_NAME = DIRECTORY + "/small.txt";
+
+    static final String EMPTY_NAME = "empty.txt";
+
+    static final String ALIGNED_NAME = "aligned.bin";
+
+    static final List<String> LINK_NAMES = Arrays.asList("symlink.tif", "hardlink.tif", "fifo");
+
+    static final long MODIFY_TIME = 1500000000000L;
+
+    //按写入顺序排列的普通文件
+    final Map<String, byte[]> files = new LinkedHashMap<>();
+
+    TarFixture(){
+        Random random = new Random(42);
+        files.put(SMALL_NAME, "hello tar".getBytes());
+        files.put(LONG_NAME, randomBytes(random, 70000));
+        files.put(EMPTY_NAME, new byte[0]);
+        files.put(ALIGNED_NAME, randomBytes(random, 2048));
+    }
+
+    /**
+     * 写出tar文件
+     * @param gzip 是否使用gzip压缩
+     */
+    File write(File file, boolean gzip) throws IOException {
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
+        if (gzip)
+            outputStream = new GzipCompressorOutputStream(outputStream);
+        try (TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(outputStream)) {
+            tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            TarArchiveEntry directory = new TarArchiveEntry(DIRECTORY + "/");
+            directory.setModTime(MODIFY_TIME);
+            tarOutputStream.putArchiveEntry(directory);
+            tarOutputStream.closeArchiveEntry();
+
+            Iterator<Map.Entry<String, byte[]>> iterator = files.entrySet().iterator();
+            //链接放在普通文件之间，检查跳过链接后后续文件的偏移量
+            writeFile(tarOutputStream, iterator.next());
+            writeFile(tarOutputStream, iterator.next());
+            writeLink(tarOutputStream, LINK_NAMES.get(0), TarConstants.LF_SYMLINK, LONG_NAME);
+            writeLink(tarOutputStream, LINK_NAMES.get(1), TarConstants.LF_LINK, LONG_NAME);
+            writeLink(tarOutputStream, LINK_NAMES.get(2), TarConstants.LF_FIFO, null);
+            while (iterator.hasNext())
+                writeFile(tarOutputStream, iterator.next());
+        }
+        return file;
+    }
+
+    private static void writeFile(TarArchiveOutputStream tarOutputStream, Map.Entry<String, byte[]> file) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(file.getKey());
+        entry.setSize(file.getValue().length);
+        entry.setModTime(MODIFY_TIME);
+        tarOutputStream.putArchiveEntry(entry);
+        tarOutputStream.write(file.getValue());
+        tarOutputStream.closeArchiveEntry();
+    }
+
+    private static void writeLink(TarArchiveOutputStream tarOutputStream, String name, byte type, String linkName) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name, type);
+        if (linkName != null)
+            entry.setLinkName(linkName);
+        entry.setModTime(MODIFY_TIME);
+        tarOutputStream.putArchiveEntry(entry);
+        tarOutputStream.closeArchiveEntry();
+    }
+
+    private static byte[] randomBytes(Random random, int length){
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String repeat(char c, int count){
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
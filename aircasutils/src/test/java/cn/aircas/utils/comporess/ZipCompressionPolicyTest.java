@@ -0,0 +1,120 @@
+package cn.aircas.utils.comporess;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.*;
+
+public class ZipCompressionPolicyTest {
+
+    private static final int FILE_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Random random = new Random(11);
+
+    @Test
+    public void compressedExtensionIsStored() throws Exception {
+        //扩展名优先，不读取文件内容
+        assertEquals(ZipEntry.STORED, decide("a.jpg", zeros(FILE_SIZE)));
+        assertEquals(ZipEntry.STORED, decide("b.ZIP", zeros(FILE_SIZE)));
+    }
+
+    @Test
+    public void compressedMagicIsStored() throws Exception {
+        assertEquals(ZipEntry.STORED, decide("jpeg.dat", withMagic((byte) 0xFF, (byte) 0xD8, (byte) 0xFF)));
+        assertEquals(ZipEntry.STORED, decide("png.dat", withMagic((byte) 0x89, (byte) 'P', (byte) 'N', (byte) 'G')));
+        assertEquals(ZipEntry.STORED, decide("zip.dat", withMagic((byte) 'P', (byte) 'K', (byte) 3, (byte) 4)));
+    }
+
+    @Test
+    public void textIsDeflated() throws Exception {
+        //文本扩展名即使内容不可压缩也直接压缩
+        assertEquals(ZipEntry.DEFLATED, decide("a.xml", randomBytes(FILE_SIZE)));
+        byte[] text = new byte[FILE_SIZE];
+        byte[] line = "<Band id=\"1\" min=\"0\" max=\"255\"/>\n".getBytes(StandardCharsets.UTF_8);
+        for (int index = 0; index < text.length; index++)
+            text[index] = line[index % line.length];
+        assertEquals(ZipEntry.DEFLATED, decide("a.dat", text));
+    }
+
+    @Test
+    public void smallFileIsDeflated() throws Exception {
+        assertEquals(ZipEntry.DEFLATED, decide("small.dat", randomBytes(4 * 1024 - 1)));
+    }
+
+    @Test
+    public void randomBytesAreStoredBySampling() throws Exception {
+        assertEquals(ZipEntry.STORED, decide("random.dat", randomBytes(FILE_SIZE)));
+        assertEquals(ZipEntry.DEFLATED, decide("zeros.dat", zeros(FILE_SIZE)));
+    }
+
+    @Test
+    public void tiffDecidedByCompressionTag() throws Exception {
+        //像素数据与压缩标签相反，确认按标签而不是试压缩判断
+        assertEquals(ZipEntry.STORED, decide("lzw.tif", tiff(5, zeros(FILE_SIZE))));
+        assertEquals(ZipEntry.DEFLATED, decide("raw.tif", tiff(1, randomBytes(FILE_SIZE))));
+    }
+
+    @Test
+    public void alwaysDeflate() throws Exception {
+        File file = write("a.jpg", randomBytes(FILE_SIZE));
+        assertEquals(ZipEntry.DEFLATED, ZipCompressionPolicy.ALWAYS_DEFLATE.decide(file).getMethod());
+    }
+
+    private int decide(String name, byte[] content) throws IOException {
+        return ZipCompressionPolicy.DEFAULT.decide(write(name, content)).getMethod();
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    /**
+     * 文件头之后为可压缩的数据，只有文件头能判断为已压缩
+     */
+    private static byte[] withMagic(byte... magic){
+        byte[] content = zeros(FILE_SIZE);
+        System.arraycopy(magic, 0, content, 0, magic.length);
+        return content;
+    }
+
+    /**
+     * 单波段8位tif，IFD之后为像素数据
+     */
+    private static byte[] tiff(int compression, byte[] pixels){
+        short[][] entries = {{256, 256}, {257, 256}, {258, 8}, {259, (short) compression}, {277, 1}};
+        int ifdSize = 2 + entries.length * 12 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(8 + ifdSize + pixels.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        buffer.putShort((short) entries.length);
+        for (short[] entry : entries)
+            buffer.putShort(entry[0]).putShort((short) 3).putInt(1).putShort(entry[1]).putShort((short) 0);
+        buffer.putInt(0);
+        buffer.put(pixels);
+        return buffer.array();
+    }
+
+    private static byte[] zeros(int length){
+        return new byte[length];
+    }
+
+    private byte[] randomBytes(int length){
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
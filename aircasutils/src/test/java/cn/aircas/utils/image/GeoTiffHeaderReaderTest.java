@@ -0,0 +1,222 @@
+package cn.aircas.utils.image;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class GeoTiffHeaderReaderTest {
+
+    private static final int SHORT = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 12;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void classicLittleEndian() throws Exception {
+        assertGeographic(read(geographicTiff(ByteOrder.LITTLE_ENDIAN, false)), false);
+    }
+
+    @Test
+    public void classicBigEndian() throws Exception {
+        assertGeographic(read(geographicTiff(ByteOrder.BIG_ENDIAN, false)), false);
+    }
+
+    @Test
+    public void bigTiffLittleEndian() throws Exception {
+        assertGeographic(read(geographicTiff(ByteOrder.LITTLE_ENDIAN, true)), true);
+    }
+
+    @Test
+    public void bigTiffBigEndian() throws Exception {
+        assertGeographic(read(geographicTiff(ByteOrder.BIG_ENDIAN, true)), true);
+    }
+
+    @Test
+    public void projectedTransformationWithPixelIsPoint() throws Exception {
+        for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            for (boolean bigTiff : new boolean[]{false, true}) {
+                TiffWriter tiffWriter = new TiffWriter(byteOrder, bigTiff);
+                tiffWriter.add(256, LONG, 70000);
+                tiffWriter.add(257, LONG, 80000);
+                tiffWriter.add(258, SHORT, 32);
+                tiffWriter.add(339, SHORT, 3);
+                tiffWriter.addDoubles(34264, 2, 0, 0, 400000, 0, -2, 0, 4500000, 0, 0, 0, 0, 0, 0, 0, 1);
+                tiffWriter.add(34735, SHORT, 1, 1, 0, 3, 1024, 0, 1, 1, 1025, 0, 1, 2, 3072, 0, 1, 32650);
+
+                GeoTiffHeader geoTiffHeader = read(tiffWriter.toBytes());
+                assertEquals(bigTiff, geoTiffHeader.isBigTiff());
+                assertEquals(70000, geoTiffHeader.getWidth());
+                assertEquals(80000, geoTiffHeader.getHeight());
+                assertEquals("Float32", geoTiffHeader.getDataTypeName());
+                assertEquals(Integer.valueOf(32650), geoTiffHeader.getEpsgCode());
+                //PixelIsPoint时原点移到像素左上角
+                assertArrayEquals(new double[]{399999, 2, 0, 4500001, 0, -2}, geoTiffHeader.getGeoTransform(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void plainTiffHasNoGeoTags() throws Exception {
+        TiffWriter tiffWriter = new TiffWriter(ByteOrder.LITTLE_ENDIAN, false);
+        tiffWriter.add(256, SHORT, 640);
+        tiffWriter.add(257, SHORT, 480);
+        tiffWriter.add(258, SHORT, 8, 8, 8);
+        tiffWriter.add(277, SHORT, 3);
+
+        GeoTiffHeader geoTiffHeader = read(tiffWriter.toBytes());
+        assertEquals(640, geoTiffHeader.getWidth());
+        assertEquals(3, geoTiffHeader.getBands());
+        assertEquals("Byte", geoTiffHeader.getDataTypeName());
+        assertEquals(GeoTiffHeader.COMPRESSION_NONE, geoTiffHeader.getCompression());
+        assertFalse(geoTiffHeader.isHasGeoKeys());
+        assertNull(geoTiffHeader.getGeoTransform());
+        assertNull(geoTiffHeader.getEpsgCode());
+    }
+
+    @Test
+    public void notTiffReturnsNull() throws Exception {
+        assertNull(read(new byte[]{(byte) 0x89, 'P', 'N', 'G', 13, 10, 26, 10, 0, 0, 0, 0}));
+        assertNull(read(new byte[]{'I', 'I', 42}));
+    }
+
+    @Test(expected = IOException.class)
+    public void ifdOutsideFileIsRejected() throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(4096);
+        read(header.array());
+    }
+
+    private static byte[] geographicTiff(ByteOrder byteOrder, boolean bigTiff){
+        TiffWriter tiffWriter = new TiffWriter(byteOrder, bigTiff);
+        tiffWriter.add(256, LONG, 2000);
+        tiffWriter.add(257, SHORT, 1000);
+        tiffWriter.add(258, SHORT, 16, 16, 16, 16);
+        tiffWriter.add(259, SHORT, 5);
+        tiffWriter.add(277, SHORT, 4);
+        tiffWriter.add(339, SHORT, 2, 2, 2, 2);
+        tiffWriter.addDoubles(33550, 0.001, 0.002, 0);
+        tiffWriter.addDoubles(33922, 0, 0, 0, 116, 40, 0);
+        tiffWriter.add(34735, SHORT, 1, 1, 0, 3, 1024, 0, 1, 2, 1025, 0, 1, 1, 2048, 0, 1, 4326);
+        return tiffWriter.toBytes();
+    }
+
+    private static void assertGeographic(GeoTiffHeader geoTiffHeader, boolean bigTiff){
+        assertEquals(bigTiff, geoTiffHeader.isBigTiff());
+        assertEquals(2000, geoTiffHeader.getWidth());
+        assertEquals(1000, geoTiffHeader.getHeight());
+        assertEquals(4, geoTiffHeader.getBands());
+        assertEquals("Int16", geoTiffHeader.getDataTypeName());
+        assertEquals(5, geoTiffHeader.getCompression());
+        assertTrue(geoTiffHeader.isHasGeoKeys());
+        assertEquals(2, geoTiffHeader.getModelType());
+        assertEquals(Integer.valueOf(4326), geoTiffHeader.getEpsgCode());
+        assertEquals(1, geoTiffHeader.getTiepointCount());
+        assertArrayEquals(new double[]{116, 0.001, 0, 40, 0, -0.002}, geoTiffHeader.getGeoTransform(), 1e-12);
+    }
+
+    private GeoTiffHeader read(byte[] bytes) throws IOException {
+        File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), bytes);
+        return GeoTiffHeaderReader.read(file.getAbsolutePath());
+    }
+
+    /**
+     * 生成只有一个IFD的TIFF/BigTIFF文件头，超出IFD项的值依次存放在IFD之后
+     */
+    private static class TiffWriter {
+        private final ByteOrder byteOrder;
+        private final boolean bigTiff;
+        private final Map<Integer, byte[]> values = new TreeMap<>();
+        private final Map<Integer, Integer> types = new TreeMap<>();
+        private final Map<Integer, Integer> counts = new TreeMap<>();
+
+        private TiffWriter(ByteOrder byteOrder, boolean bigTiff){
+            this.byteOrder = byteOrder;
+            this.bigTiff = bigTiff;
+        }
+
+        private void add(int tag, int type, long... tagValues){
+            int typeSize = type == SHORT ? 2 : 4;
+            ByteBuffer buffer = ByteBuffer.allocate(tagValues.length * typeSize).order(byteOrder);
+            for (long value : tagValues) {
+                if (type == SHORT)
+                    buffer.putShort((short) value);
+                else
+                    buffer.putInt((int) value);
+            }
+            put(tag, type, tagValues.length, buffer.array());
+        }
+
+        private void addDoubles(int tag, double... tagValues){
+            ByteBuffer buffer = ByteBuffer.allocate(tagValues.length * 8).order(byteOrder);
+            for (double value : tagValues)
+                buffer.putDouble(value);
+            put(tag, DOUBLE, tagValues.length, buffer.array());
+        }
+
+        private void put(int tag, int type, int count, byte[] bytes){
+            values.put(tag, bytes);
+            types.put(tag, type);
+            counts.put(tag, count);
+        }
+
+        private byte[] toBytes(){
+            int headerSize = bigTiff ? 16 : 8;
+            int countSize = bigTiff ? 8 : 2;
+            int entrySize = bigTiff ? 20 : 12;
+            int inlineSize = bigTiff ? 8 : 4;
+            int ifdSize = countSize + values.size() * entrySize + (bigTiff ? 8 : 4);
+            int dataSize = 0;
+            for (byte[] bytes : values.values())
+                dataSize += bytes.length > inlineSize ? bytes.length : 0;
+
+            ByteBuffer buffer = ByteBuffer.allocate(headerSize + ifdSize + dataSize).order(byteOrder);
+            buffer.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+            buffer.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+            if (bigTiff)
+                buffer.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(headerSize);
+            else
+                buffer.putShort((short) 42).putInt(headerSize);
+
+            if (bigTiff)
+                buffer.putLong(values.size());
+            else
+                buffer.putShort((short) values.size());
+            int dataOffset = headerSize + ifdSize;
+            for (Map.Entry<Integer, byte[]> entry : values.entrySet()) {
+                byte[] bytes = entry.getValue();
+                buffer.putShort(entry.getKey().shortValue()).putShort(types.get(entry.getKey()).shortValue());
+                if (bigTiff)
+                    buffer.putLong(counts.get(entry.getKey()));
+                else
+                    buffer.putInt(counts.get(entry.getKey()));
+                if (bytes.length <= inlineSize) {
+                    buffer.put(bytes).put(new byte[inlineSize - bytes.length]);
+                } else {
+                    if (bigTiff)
+                        buffer.putLong(dataOffset);
+                    else
+                        buffer.putInt(dataOffset);
+                    int position = buffer.position();
+                    buffer.position(dataOffset);
+                    buffer.put(bytes);
+                    buffer.position(position);
+                    dataOffset += bytes.length;
+                }
+            }
+            return buffer.array();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package cn.aircas.utils.image;
+
+import cn.aircas.utils.image.emun.CoordinateSystemType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class ImageInfoCacheTest {
+
+    private static final String WGS84 = "GEOGCS[\"WGS 84\",DATUM[\"WGS_1984\",SPHEROID[\"WGS 84\",6378137,298.257223563]],"
+            + "PRIMEM[\"Greenwich\",0],UNIT[\"degree\",0.0174532925199433],AUTHORITY[\"EPSG\",\"4326\"]]";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void recordsSurviveReopen() throws Exception {
+        File storeFile = temporaryFolder.newFile("info.cache");
+        try (ImageInfoCache cache = new ImageInfoCache(storeFile)) {
+            cache.put("/data/a.tif", 100, 1000, imageInfo(1000, WGS84));
+            cache.put("/data/b.tif", 200, 2000, imageInfo(2000, WGS84));
+            cache.put("/data/c.tif", 300, 3000, imageInfo(3000, null));
+        }
+        try (ImageInfoCache cache = new ImageInfoCache(storeFile)) {
+            assertEquals(3, cache.size());
+            assertImageInfo(cache.getIfPresent("/data/a.tif", 100, 1000), 1000, WGS84);
+            assertImageInfo(cache.getIfPresent("/data/c.tif", 300, 3000), 3000, null);
+            //大小或修改时间不一致视为失效
+            assertNull(cache.getIfPresent("/data/a.tif", 101, 1000));
+            assertNull(cache.getIfPresent("/data/a.tif", 100, 1001));
+        }
+    }
+
+    @Test
+    public void tornTailIsTruncatedOnOpen() throws Exception {
+        File storeFile = temporaryFolder.newFile("info.cache");
+        long completeLength;
+        try (ImageInfoCache cache = new ImageInfoCache(storeFile)) {
+            cache.put("/data/a.tif", 100, 1000, imageInfo(1000, WGS84));
+            cache.put("/data/b.tif", 200, 2000, imageInfo(2000, WGS84));
+            completeLength = storeFile.length();
+            cache.put("/data/c.tif", 300, 3000, imageInfo(3000, WGS84));
+        }
+        //模拟写入最后一条记录时进程退出
+        try (RandomAccessFile file = new RandomAccessFile(storeFile, "rw")) {
+            file.setLength(file.length() - 7);
+        }
+
+        try (ImageInfoCache cache = new ImageInfoCache(storeFile)) {
+            assertEquals(2, cache.size());
+            assertEquals(completeLength, storeFile.length());
+            assertNull(cache.getIfPresent("/data/c.tif", 300, 3000));
+            assertImageInfo(cache.getIfPresent("/data/b.tif", 200, 2000), 2000, WGS84);
+            //截断后追加的记录可以正常读取
+            cache.put("/data/c.tif", 300, 3000, imageInfo(3000, WGS84));
+        }
+        try (ImageInfoCache cache = new ImageInfoCache(storeFile)) {
+            assertEquals(3, cache.size());
+            assertImageInfo(cache.getIfPresent("/data/c.tif", 300, 3000), 3000, WGS84);
+        }
+    }
+
+    @Test
+    public void partialRecordHeaderIsTruncated() throws Exception {
+        File storeFile = temporaryFolder.newFile("info.cache");
+        try (ImageInfoCache cache = new ImageInfoCache(storeFile)) {
+            cache.put("/data/a.tif", 100, 1000, imageInfo(1000, WGS84));
+        }
+        long completeLength = storeFile.length();
+        //只写出了记录类型和部分长度
+        try (FileOutputStream outputStream = new FileOutputStream(storeFile, true)) {
+            outputStream.write(new byte[]{2, 0, 0});
+        }
+
+        try (ImageInfoCache cache = new ImageInfoCache(storeFile)) {
+            assertEquals(1, cache.size());
+            assertEquals(completeLength, storeFile.length());
+            assertImageInfo(cache.getIfPresent("/data/a.tif", 100, 1000), 1000, WGS84);
+        }
+    }
+
+    @Test
+    public void newerRecordReplacesOlderAndCompacts() throws Exception {
+        File storeFile = temporaryFolder.newFile("info.cache");
+        try (ImageInfoCache cache = new ImageInfoCache(storeFile)) {
+            cache.put("/data/a.tif", 100, 1000, imageInfo(1000, WGS84));
+            cache.put("/data/a.tif", 150, 1500, imageInfo(1500, WGS84));
+            long before = storeFile.length();
+            cache.compact();
+            assertTrue(storeFile.length() < before);
+            assertEquals(1, cache.size());
+            assertNull(cache.getIfPresent("/data/a.tif", 100, 1000));
+            assertImageInfo(cache.getIfPresent("/data/a.tif", 150, 1500), 1500, WGS84);
+        }
+    }
+
+    private static ImageInfo imageInfo(int width, String projection){
+        ImageInfo imageInfo = new ImageInfo();
+        imageInfo.setBands(3);
+        imageInfo.setWidth(width);
+        imageInfo.setHeight(width / 2);
+        imageInfo.setBit("Byte");
+        imageInfo.setMinLon(116);
+        imageInfo.setMaxLon(117);
+        imageInfo.setMinLat(39);
+        imageInfo.setMaxLat(40);
+        imageInfo.setRange(new double[]{116, 39, 117, 40});
+        imageInfo.setProjection(projection);
+        imageInfo.setResolution(0.5);
+        imageInfo.setProjectionRange(new double[]{116, 39, 117, 40});
+        imageInfo.setCoordinateSystemType(projection == null ? CoordinateSystemType.PIXELCS : CoordinateSystemType.GEOGCS);
+        return imageInfo;
+    }
+
+    private static void assertImageInfo(ImageInfo imageInfo, int width, String projection){
+        assertEquals(imageInfo(width, projection), imageInfo);
+    }
+}
@@ -0,0 +1,125 @@
+package cn.aircas.utils.image.catalog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ImageCatalogIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Random random = new Random(20260101L);
+
+    @Test
+    public void queryMatchesBruteForce(){
+        ImageCatalogIndex index = new ImageCatalogIndex();
+        Map<String, ImageFootprint> expected = new HashMap<>();
+        for (int image = 0; image < 3000; image++)
+            put(index, expected, randomFootprint("image" + image));
+        index.rebuild();
+
+        //重建后再增删、替换，覆盖R树与增量列表同时存在的情况
+        for (int image = 0; image < 3000; image += 7) {
+            assertTrue(index.remove("image" + image));
+            expected.remove("image" + image);
+        }
+        for (int image = 1; image < 3000; image += 11)
+            put(index, expected, randomFootprint("image" + image));
+        for (int image = 3000; image < 3050; image++)
+            put(index, expected, randomFootprint("image" + image));
+        assertEquals(expected.size(), index.size());
+
+        for (int query = 0; query < 500; query++) {
+            double lon = random.nextDouble() * 360 - 180;
+            double lat = random.nextDouble() * 180 - 90;
+            double width = random.nextDouble() * 20;
+            double height = random.nextDouble() * 20;
+            assertQuery(index, expected, lon, lat, lon + width, lat + height);
+            assertQuery(index, expected, lon, lat, lon, lat);
+        }
+    }
+
+    @Test
+    public void nearestMatchesBruteForce(){
+        ImageCatalogIndex index = new ImageCatalogIndex();
+        Map<String, ImageFootprint> expected = new HashMap<>();
+        for (int image = 0; image < 1000; image++)
+            put(index, expected, randomFootprint("image" + image));
+        index.rebuild();
+        for (int image = 0; image < 1000; image += 5) {
+            index.remove("image" + image);
+            expected.remove("image" + image);
+        }
+
+        for (int query = 0; query < 100; query++) {
+            double lon = random.nextDouble() * 360 - 180;
+            double lat = random.nextDouble() * 180 - 90;
+            List<String> nearest = index.nearest(lon, lat, 10);
+            List<Double> bruteForce = new ArrayList<>();
+            for (ImageFootprint footprint : expected.values())
+                bruteForce.add(distanceSquared(footprint, lon, lat));
+            Collections.sort(bruteForce);
+
+            assertEquals(10, nearest.size());
+            for (int rank = 0; rank < nearest.size(); rank++)
+                assertEquals(bruteForce.get(rank), distanceSquared(expected.get(nearest.get(rank)), lon, lat), 1e-9);
+        }
+    }
+
+    @Test
+    public void saveAndLoadKeepQueries() throws Exception {
+        ImageCatalogIndex index = new ImageCatalogIndex();
+        Map<String, ImageFootprint> expected = new HashMap<>();
+        for (int image = 0; image < 500; image++)
+            put(index, expected, randomFootprint("image" + image));
+
+        File file = temporaryFolder.newFile("catalog.idx");
+        index.save(file);
+        //再次保存覆盖已有的索引文件
+        index.save(file);
+        assertFalse(new File(file.getAbsolutePath() + ".tmp").exists());
+
+        ImageCatalogIndex loaded = ImageCatalogIndex.load(file);
+        assertEquals(expected.size(), loaded.size());
+        for (int query = 0; query < 100; query++) {
+            double lon = random.nextDouble() * 360 - 180;
+            double lat = random.nextDouble() * 180 - 90;
+            assertQuery(loaded, expected, lon, lat, lon + 10, lat + 10);
+        }
+    }
+
+    private ImageFootprint randomFootprint(String imagePath){
+        double lon = random.nextDouble() * 350 - 180;
+        double lat = random.nextDouble() * 170 - 90;
+        return new ImageFootprint(imagePath, lon, lat, lon + random.nextDouble() * 5, lat + random.nextDouble() * 5);
+    }
+
+    private static void put(ImageCatalogIndex index, Map<String, ImageFootprint> expected, ImageFootprint footprint){
+        index.insert(footprint);
+        expected.put(footprint.getImagePath(), footprint);
+    }
+
+    private static void assertQuery(ImageCatalogIndex index, Map<String, ImageFootprint> expected,
+                                    double minLon, double minLat, double maxLon, double maxLat){
+        Set<String> bruteForce = new HashSet<>();
+        for (ImageFootprint footprint : expected.values()) {
+            if (footprint.intersects(minLon, minLat, maxLon, maxLat))
+                bruteForce.add(footprint.getImagePath());
+        }
+        List<String> result = index.query(minLon, minLat, maxLon, maxLat);
+        assertEquals("重复的查询结果", result.size(), new HashSet<>(result).size());
+        assertEquals(bruteForce, new HashSet<>(result));
+    }
+
+    private static double distanceSquared(ImageFootprint footprint, double lon, double lat){
+        double dx = Math.max(0, Math.max(footprint.getMinLon() - lon, lon - footprint.getMaxLon()));
+        double dy = Math.max(0, Math.max(footprint.getMinLat() - lat, lat - footprint.getMaxLat()));
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,63 @@
+package cn.aircas.utils.image.geo;
+
+import cn.aircas.utils.image.emun.CoordinateSystemType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GeoReferenceTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static final String WGS84 = "GEOGCS[\"WGS 84\",DATUM[\"WGS_1984\",SPHEROID[\"WGS 84\",6378137,298.257223563]],"
+            + "PRIMEM[\"Greenwich\",0],UNIT[\"degree\",0.0174532925199433],AUTHORITY[\"EPSG\",\"4326\"]]";
+
+    @Test
+    public void georeferencedRangeRoundTrip(){
+        GeoReference geoReference = GeoReference.of(new double[]{116.0, 0.001, 0, 40.0, 0, -0.001}, 2000, 1000, WGS84);
+        assertEquals(CoordinateSystemType.GEOGCS, geoReference.getCoordinateSystemType());
+
+        double[] range = geoReference.getCoordinateRange();
+        assertArrayEquals(new double[]{116.0, 39.0, 118.0, 40.0}, range, DELTA);
+        assertRangeMapsToImage(geoReference, range);
+    }
+
+    @Test
+    public void pixelCoordinateSystemKeepsNegativeRows(){
+        GeoReference geoReference = GeoReference.of(new double[]{0, 1, 0, 0, 0, 1}, 300, 200, "");
+        assertEquals(CoordinateSystemType.PIXELCS, geoReference.getCoordinateSystemType());
+
+        //没有地理信息的影像坐标y为像素行号取负，与GeoUtils.getCoordinateRange的{0,-H,W,0}一致
+        double[] range = geoReference.getCoordinateRange();
+        assertArrayEquals(new double[]{0, -200, 300, 0}, range, DELTA);
+        assertRangeMapsToImage(geoReference, range);
+
+        double[] pixel = new double[2];
+        geoReference.coordinateToPixel(10, -20, pixel);
+        assertArrayEquals(new double[]{10, 20}, pixel, DELTA);
+    }
+
+    @Test
+    public void rotatedTransformRoundTrip(){
+        GeoReference geoReference = GeoReference.of(new double[]{500000, 0.8, 0.3, 4000000, 0.2, -0.9}, 1000, 800, WGS84);
+        double[] points = {0, 0, 999.5, 0, 0, 799.5, 123.25, 456.75};
+        double[] expected = points.clone();
+        geoReference.pixelToCoordinate(points);
+        geoReference.coordinateToPixel(points);
+        assertArrayEquals(expected, points, 1e-6);
+    }
+
+    @Test
+    public void singularTransformInvertsToZero(){
+        GeoReference geoReference = GeoReference.of(new double[]{0, 0, 0, 0, 0, 0}, 10, 10, WGS84);
+        assertArrayEquals(new double[6], geoReference.getInverseGeoTransform(), 0);
+    }
+
+    private static void assertRangeMapsToImage(GeoReference geoReference, double[] range){
+        double[] pixel = new double[2];
+        geoReference.coordinateToPixel(range[0], range[3], pixel);
+        assertArrayEquals(new double[]{0, 0}, pixel, 1e-6);
+        geoReference.coordinateToPixel(range[2], range[1], pixel);
+        assertArrayEquals(new double[]{geoReference.getWidth(), geoReference.getHeight()}, pixel, 1e-6);
+    }
+}
@@ -0,0 +1,87 @@
+package cn.aircas.utils.image.slice;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class SliceZipWriterTest {
+
+    @Test
+    public void writesSlicesInOrderWithStoredSizeAndCrc() throws IOException {
+        byte[] jpeg = bytes("jpeg slice");
+        byte[] png = bytes("png slice, a little longer");
+        byte[] tiff = bytes("tiff slice tiff slice tiff slice tiff slice");
+        byte[] empty = new byte[0];
+
+        ClosedFlagOutputStream outputStream = new ClosedFlagOutputStream();
+        try (SliceZipWriter sliceZipWriter = new SliceZipWriter(outputStream)) {
+            sliceZipWriter.write("0.jpg", SliceEncoder.SliceFormat.JPEG, new SliceZipWriter.EncodedSlice(jpeg));
+            sliceZipWriter.write("1.png", SliceEncoder.SliceFormat.PNG, new SliceZipWriter.EncodedSlice(png));
+            sliceZipWriter.write("2.tif", SliceEncoder.SliceFormat.GTIFF, new SliceZipWriter.EncodedSlice(tiff));
+            sliceZipWriter.write("3.jpg", SliceEncoder.SliceFormat.JPEG, new SliceZipWriter.EncodedSlice(empty));
+        }
+        //调用方的输出流不应被关闭
+        assertFalse(outputStream.closed);
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            assertEntry(zipInputStream, "0.jpg", ZipEntry.STORED, jpeg);
+            assertEntry(zipInputStream, "1.png", ZipEntry.STORED, png);
+            assertEntry(zipInputStream, "2.tif", ZipEntry.DEFLATED, tiff);
+            assertEntry(zipInputStream, "3.jpg", ZipEntry.STORED, empty);
+            assertNull(zipInputStream.getNextEntry());
+        }
+    }
+
+    @Test
+    public void emptyArchiveIsStillValid() throws IOException {
+        ClosedFlagOutputStream outputStream = new ClosedFlagOutputStream();
+        new SliceZipWriter(outputStream).close();
+        assertFalse(outputStream.closed);
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            assertNull(zipInputStream.getNextEntry());
+        }
+    }
+
+    private static void assertEntry(ZipInputStream zipInputStream, String name, int method, byte[] expected) throws IOException {
+        ZipEntry zipEntry = zipInputStream.getNextEntry();
+        assertNotNull(zipEntry);
+        assertEquals(name, zipEntry.getName());
+        assertEquals(method, zipEntry.getMethod());
+        if (method == ZipEntry.STORED) {
+            //直接存储的条目在本地文件头中带有大小和校验值
+            assertEquals(expected.length, zipEntry.getSize());
+            assertEquals(expected.length, zipEntry.getCompressedSize());
+            assertEquals(crc(expected), zipEntry.getCrc());
+        }
+        assertArrayEquals(expected, IOUtils.toByteArray(zipInputStream));
+    }
+
+    private static long crc(byte[] bytes){
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return crc32.getValue();
+    }
+
+    private static byte[] bytes(String text){
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class ClosedFlagOutputStream extends ByteArrayOutputStream {
+        private boolean closed;
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package cn.aircas.utils.image.slice;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class StretchKernelTest {
+
+    @Test
+    public void unsignedLookupTableClampsOutsideRange(){
+        StretchKernel stretchKernel = StretchKernel.lookup(StretchKernel.GDT_UINT16, 100, 1100);
+        assertArrayEquals(new int[]{0, 0, 127, 254, 255, 255},
+                stretchShorts(stretchKernel, 0, 100, 600, 1100, 2000, 65535));
+    }
+
+    @Test
+    public void signedLookupTableHandlesNegativeValues(){
+        StretchKernel stretchKernel = StretchKernel.lookup(StretchKernel.GDT_INT16, -1000, 1000);
+        //-1在读取缓冲区中为0xFFFF，按有符号值查表
+        assertArrayEquals(new int[]{0, 0, 0, 127, 127, 254, 255},
+                stretchShorts(stretchKernel, Short.MIN_VALUE, -2000, -1000, -1, 0, 1000, Short.MAX_VALUE));
+    }
+
+    @Test
+    public void lookupTableWithEqualMinMax(){
+        StretchKernel stretchKernel = StretchKernel.lookup(StretchKernel.GDT_UINT16, 500, 500);
+        assertArrayEquals(new int[]{0, 0, 255, 255}, stretchShorts(stretchKernel, 0, 500, 501, 65535));
+
+        stretchKernel = StretchKernel.lookup(StretchKernel.GDT_INT16, -5, -5);
+        assertArrayEquals(new int[]{0, 0, 255}, stretchShorts(stretchKernel, -6, -5, -4));
+    }
+
+    @Test
+    public void floatStretchTreatsNanAsMinimum(){
+        StretchKernel stretchKernel = StretchKernel.lookup(StretchKernel.GDT_FLOAT32, 0, 10);
+        ByteBuffer src = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+        src.putFloat(0, Float.NaN).putFloat(4, -1).putFloat(8, 5).putFloat(12, 20);
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        stretchKernel.apply(src, 0, 4, 4, 1, dst);
+        assertArrayEquals(new int[]{0, 0, 127, 255}, unsigned(dst, 4));
+    }
+
+    @Test
+    public void applyReadsWindowWithRowStride(){
+        StretchKernel stretchKernel = StretchKernel.lookup(StretchKernel.GDT_UINT16, 0, 254);
+        //3x2的源数据中取右侧2x2窗口
+        ByteBuffer src = shorts(0, 10, 20, 30, 40, 50);
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        stretchKernel.apply(src, 1, 3, 2, 2, dst);
+        assertArrayEquals(new int[]{10, 20, 40, 50}, unsigned(dst, 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void byteDataIsNotStretched(){
+        StretchKernel.lookup(1, 0, 255);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedSliceBufferIsRejected(){
+        //50000*50000*2字节按int计算会溢出为负数
+        StretchKernel.readBuffer((long) 50000 * 50000 * 2);
+    }
+
+    @Test
+    public void threadBufferGrowsToRequestedCapacity(){
+        assertTrue(StretchKernel.writeBuffer(1000).capacity() >= 1000);
+        assertTrue(StretchKernel.writeBuffer(100000).capacity() >= 100000);
+        assertEquals(0, StretchKernel.writeBuffer(10).position());
+    }
+
+    private static int[] stretchShorts(StretchKernel stretchKernel, int... values){
+        ByteBuffer dst = ByteBuffer.allocate(values.length);
+        stretchKernel.apply(shorts(values), 0, values.length, values.length, 1, dst);
+        return unsigned(dst, values.length);
+    }
+
+    private static ByteBuffer shorts(int... values){
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 2).order(ByteOrder.nativeOrder());
+        for (int index = 0; index < values.length; index++)
+            buffer.putShort(index * 2, (short) values[index]);
+        return buffer;
+    }
+
+    private static int[] unsigned(ByteBuffer buffer, int length){
+        int[] values = new int[length];
+        for (int index = 0; index < length; index++)
+            values[index] = buffer.get(index) & 0xFF;
+        return values;
+    }
+}